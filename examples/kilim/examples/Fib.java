@@ -42,7 +42,7 @@ public class Fib extends Generator<BigInteger> {
         while (true) {
             // / NOTE: Generator yields a result
             // / j is now available to the caller of this generator's next() method.
-            yield(j);
+            this.yield(j);
             BigInteger f = i.add(j);
             i = j;
             j = f;
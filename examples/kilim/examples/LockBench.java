@@ -0,0 +1,99 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license 
+ * specified in the file "License"
+ */
+
+package kilim.examples;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+import kilim.Pausable;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.sync.FiberMutex;
+
+/**
+ * Many workers bumping a shared counter under a lock: tasks on a scheduler
+ * using a FiberMutex, against one thread per worker using a ReentrantLock.
+ * 
+ * <pre>
+ * java kilim.examples.LockBench [numWorkers [opsPerWorker]]
+ * </pre>
+ */
+public class LockBench {
+    static long counter;
+
+    static class Worker extends Task {
+        final FiberMutex mutex;
+        final int ops;
+        final CountDownLatch done;
+
+        Worker(FiberMutex mutex, int ops, CountDownLatch done) {
+            this.mutex = mutex;
+            this.ops = ops;
+            this.done = done;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = 0; i < ops; i++) {
+                mutex.lock();
+                try {
+                    counter++;
+                } finally {
+                    mutex.unlock();
+                }
+            }
+            done.countDown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numWorkers = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        Scheduler s = new Scheduler(Scheduler.defaultNumThreads);
+        for (int round = 0; round < 5; round++) {
+            counter = 0;
+            FiberMutex mutex = new FiberMutex();
+            CountDownLatch done = new CountDownLatch(numWorkers);
+            long begin = System.nanoTime();
+            for (int w = 0; w < numWorkers; w++) {
+                new Worker(mutex, ops, done).start(s);
+            }
+            done.await();
+            report("FiberMutex, " + s.numThreads() + " threads", System.nanoTime() - begin, numWorkers * ops);
+
+            counter = 0;
+            final ReentrantLock lock = new ReentrantLock();
+            Thread[] threads = new Thread[numWorkers];
+            begin = System.nanoTime();
+            for (int w = 0; w < numWorkers; w++) {
+                threads[w] = new Thread() {
+                    public void run() {
+                        for (int i = 0; i < ops; i++) {
+                            lock.lock();
+                            try {
+                                counter++;
+                            } finally {
+                                lock.unlock();
+                            }
+                        }
+                    }
+                };
+                threads[w].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            report("ReentrantLock, " + numWorkers + " threads", System.nanoTime() - begin, numWorkers * ops);
+        }
+        s.shutdown();
+    }
+
+    static void report(String what, long elapsed, long ops) {
+        if (counter != ops)
+            throw new AssertionError("counter = " + counter + ", expected " + ops);
+        System.out.println(what + ": " + (elapsed * 1000 / ops) / 1000.0 + " ns/op");
+    }
+}
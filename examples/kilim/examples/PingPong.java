@@ -0,0 +1,80 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license 
+ * specified in the file "License"
+ */
+
+package kilim.examples;
+
+import java.util.concurrent.CountDownLatch;
+
+import kilim.Pausable;
+import kilim.PauseReason;
+import kilim.Scheduler;
+import kilim.Task;
+
+/**
+ * A pause/resume ping-pong benchmark for the scheduler. Pairs of tasks pass a
+ * baton back and forth; each pass pauses one task and resumes the other.
+ * 
+ * <pre>
+ * java kilim.examples.PingPong [numThreads [numPairs [numPasses]]]
+ * </pre>
+ */
+public class PingPong extends Task {
+    static class Baton implements PauseReason {
+        volatile int turn;
+        PingPong[] players = new PingPong[2];
+    }
+
+    final Baton baton;
+    final int me;
+    final int numPasses;
+    final CountDownLatch latch;
+
+    PingPong(Baton b, int me, int numPasses, CountDownLatch latch) {
+        baton = b;
+        this.me = me;
+        this.numPasses = numPasses;
+        this.latch = latch;
+        b.players[me] = this;
+    }
+
+    public void execute() throws Pausable {
+        Baton b = baton;
+        PingPong other = b.players[1 - me];
+        for (int i = 0; i < numPasses; i++) {
+            while (b.turn != me) {
+                Task.pause(b);
+            }
+            b.turn = 1 - me;
+            other.resume();
+        }
+        latch.countDown();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : Scheduler.defaultNumThreads;
+        int numPairs = args.length > 1 ? Integer.parseInt(args[1]) : numThreads * 100;
+        int numPasses = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        Scheduler s = new Scheduler(numThreads);
+        for (int round = 0; round < 5; round++) {
+            CountDownLatch latch = new CountDownLatch(numPairs * 2);
+            PingPong[] players = new PingPong[numPairs * 2];
+            for (int i = 0; i < numPairs; i++) {
+                Baton b = new Baton();
+                players[2 * i] = new PingPong(b, 0, numPasses, latch);
+                players[2 * i + 1] = new PingPong(b, 1, numPasses, latch);
+            }
+            long begin = System.nanoTime();
+            for (PingPong p : players) {
+                p.start(s);
+            }
+            latch.await();
+            long elapsed = System.nanoTime() - begin;
+            long passes = 2L * numPairs * numPasses;
+            System.out.println(numThreads + " threads, " + numPairs + " pairs: " + (passes * 1000000000L / elapsed) + " passes/s");
+        }
+        s.shutdown();
+    }
+}
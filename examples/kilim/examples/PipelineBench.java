@@ -0,0 +1,126 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license 
+ * specified in the file "License"
+ */
+
+package kilim.examples;
+
+import java.util.Iterator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import kilim.Generator;
+import kilim.Pausable;
+
+/**
+ * A 5-stage pipeline (source, map, filter, map, take), built once by chaining
+ * generators, one per stage, and once with the fused operators of Pipeline.
+ * Prints the cost per element delivered at the end of the pipeline.
+ * 
+ * <pre>
+ * java kilim.examples.PipelineBench [numElements]
+ * </pre>
+ */
+public class PipelineBench {
+    static class Range extends Generator<Integer> {
+        public void execute() throws Pausable {
+            for (int i = 0;; i++) {
+                this.yield(i);
+            }
+        }
+    }
+
+    static class MapGen<T, R> extends Generator<R> {
+        final Iterator<T> up;
+        final Function<T, R> f;
+
+        MapGen(Iterator<T> up, Function<T, R> f) {
+            this.up = up;
+            this.f = f;
+        }
+
+        public void execute() throws Pausable {
+            while (up.hasNext()) {
+                this.yield(f.apply(up.next()));
+            }
+        }
+    }
+
+    static class FilterGen<T> extends Generator<T> {
+        final Iterator<T> up;
+        final Predicate<T> p;
+
+        FilterGen(Iterator<T> up, Predicate<T> p) {
+            this.up = up;
+            this.p = p;
+        }
+
+        public void execute() throws Pausable {
+            while (up.hasNext()) {
+                T v = up.next();
+                if (p.test(v)) {
+                    this.yield(v);
+                }
+            }
+        }
+    }
+
+    static class TakeGen<T> extends Generator<T> {
+        final Iterator<T> up;
+        final int n;
+
+        TakeGen(Iterator<T> up, int n) {
+            this.up = up;
+            this.n = n;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = 0; i < n && up.hasNext(); i++) {
+                this.yield(up.next());
+            }
+        }
+    }
+
+    static final Function<Integer, Integer> plusOne = new Function<Integer, Integer>() {
+        public Integer apply(Integer x) {
+            return x + 1;
+        }
+    };
+    static final Predicate<Integer> even = new Predicate<Integer>() {
+        public boolean test(Integer x) {
+            return (x & 1) == 0;
+        }
+    };
+    static final Function<Integer, Integer> half = new Function<Integer, Integer>() {
+        public Integer apply(Integer x) {
+            return x >> 1;
+        }
+    };
+
+    static long drain(Iterator<Integer> it) {
+        long sum = 0;
+        while (it.hasNext()) {
+            sum += it.next();
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        for (int round = 0; round < 5; round++) {
+            long begin = System.nanoTime();
+            long chained = drain(new TakeGen<Integer>(new MapGen<Integer, Integer>(new FilterGen<Integer>(new MapGen<Integer, Integer>(
+                    new Range(), plusOne), even), half), n));
+            long t1 = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            long fused = drain(new Range().map(plusOne).filter(even).map(half).take(n));
+            long t2 = System.nanoTime() - begin;
+            if (chained != fused)
+                throw new AssertionError(chained + " != " + fused);
+            System.out.println("chained generators: " + (t1 * 1000 / n) / 1000.0 + " ns/element, fused: " + (t2 * 1000 / n) / 1000.0
+                    + " ns/element");
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license 
+ * specified in the file "License"
+ */
+
+package kilim.examples;
+
+import java.lang.management.ManagementFactory;
+
+import kilim.Generator;
+import kilim.LongGenerator;
+import kilim.Pausable;
+
+/**
+ * Compares a boxed Generator&lt;Long&gt; with a LongGenerator producing the
+ * same range of longs (outside the range of Long's box cache).
+ * 
+ * <pre>
+ * java kilim.examples.PrimitiveGeneratorBench [numElements]
+ * </pre>
+ */
+public class PrimitiveGeneratorBench {
+    static final long BASE = 1L << 40;
+
+    static class Boxed extends Generator<Long> {
+        final long n;
+
+        Boxed(long n) {
+            this.n = n;
+        }
+
+        public void execute() throws Pausable {
+            for (long l = BASE; l < BASE + n; l++) {
+                this.yield(l);
+            }
+        }
+    }
+
+    static class Unboxed extends LongGenerator {
+        final long n;
+
+        Unboxed(long n) {
+            this.n = n;
+        }
+
+        public void execute() throws Pausable {
+            for (long l = BASE; l < BASE + n; l++) {
+                this.yield(l);
+            }
+        }
+    }
+
+    /*
+     * Bytes allocated so far by the current thread (HotSpot only)
+     */
+    static long allocated() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        for (int round = 0; round < 5; round++) {
+            long bytes = allocated();
+            long begin = System.nanoTime();
+            long sum = 0;
+            Boxed b = new Boxed(n);
+            while (b.hasNext()) {
+                sum += b.next();
+            }
+            long boxed = System.nanoTime() - begin;
+            long boxedBytes = allocated() - bytes;
+
+            bytes = allocated();
+            begin = System.nanoTime();
+            long sum2 = 0;
+            Unboxed u = new Unboxed(n);
+            while (u.hasNext()) {
+                sum2 += u.nextLong();
+            }
+            long unboxed = System.nanoTime() - begin;
+            long unboxedBytes = allocated() - bytes;
+            if (sum != sum2)
+                throw new AssertionError(sum + " != " + sum2);
+            System.out.println("Generator<Long>: " + (boxed * 1000 / n) / 1000.0 + " ns, " + (boxedBytes / n) + " bytes per element");
+            System.out.println("LongGenerator:   " + (unboxed * 1000 / n) / 1000.0 + " ns, " + (unboxedBytes / n) + " bytes per element");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license 
+ * specified in the file "License"
+ */
+
+package kilim.examples;
+
+import kilim.Generator;
+import kilim.Pausable;
+
+/**
+ * Measures the cost of one resume/pause round trip of a task driven directly
+ * by its caller, through a generator that yields the same value forever. With
+ * a batch size, the elements are fetched with nextBatch() instead, which only
+ * resumes the generator once per batch.
+ * 
+ * <pre>
+ * java kilim.examples.ResumeBench [numElements [batchSize]]
+ * </pre>
+ */
+public class ResumeBench extends Generator<Integer> {
+    static final Integer ONE = 1;
+
+    public void execute() throws Pausable {
+        for (;;) {
+            this.yield(ONE);
+        }
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        ResumeBench gen = new ResumeBench();
+        Integer[] batch = new Integer[Math.max(batchSize, 1)];
+        for (int round = 0; round < 10; round++) {
+            long sum = 0;
+            long begin = System.nanoTime();
+            if (batchSize > 0) {
+                while (sum < n) {
+                    int k = gen.nextBatch(batch);
+                    for (int i = 0; i < k; i++) {
+                        sum += batch[i];
+                    }
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    if (gen.hasNext()) {
+                        sum += gen.next();
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - begin;
+            System.out.println(sum + " elements: " + (elapsed * 1000 / sum) / 1000.0 + " ns/element");
+        }
+    }
+}
@@ -59,7 +59,7 @@ class Pre extends Generator<String> {
     
     void walk(Tree t) throws Pausable {
         if (t == null) return;
-        yield(t._val);
+        this.yield(t._val);
         walk(t._left);
         walk(t._right);
     }
@@ -77,6 +77,6 @@ class Post extends Generator<String> {
         if (t == null) return;
         walk(t._left);
         walk(t._right);
-        yield(t._val);
+        this.yield(t._val);
     }
 }
\ No newline at end of file
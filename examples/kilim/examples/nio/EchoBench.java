@@ -0,0 +1,257 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license 
+ * specified in the file "License"
+ */
+
+package kilim.examples.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import kilim.Pausable;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.nio.FiberServerSocketChannel;
+import kilim.nio.FiberSocketChannel;
+
+/**
+ * A loopback echo benchmark, comparing fiber based NIO with plain
+ * thread-per-connection sockets. Each client connects, then does a number of
+ * round trips of one message each.
+ * 
+ * <pre>
+ * java kilim.examples.nio.EchoBench [numClients [numRoundTrips [msgSize]]]
+ * </pre>
+ */
+public class EchoBench {
+
+    public static void main(String[] args) throws Exception {
+        int numClients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int numRoundTrips = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int msgSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        Scheduler s = new Scheduler(Scheduler.defaultNumThreads);
+        for (int round = 0; round < 3; round++) {
+            long fibers = runFibers(s, numClients, numRoundTrips, msgSize);
+            long threads = runThreads(numClients, numRoundTrips, msgSize);
+            long trips = (long) numClients * numRoundTrips;
+            System.out.println(numClients + " clients, fibers: " + (trips * 1000 / fibers) + " round trips/s, threads: "
+                    + (trips * 1000 / threads) + " round trips/s");
+        }
+        s.shutdown();
+    }
+
+    /**
+     * @return elapsed milliseconds
+     */
+    public static long runFibers(Scheduler s, int numClients, int numRoundTrips, int msgSize) throws Exception {
+        FiberServerSocketChannel server = FiberServerSocketChannel.open(new InetSocketAddress("127.0.0.1", 0));
+        new Acceptor(server).start(s);
+        SocketAddress addr = server.getLocalAddress();
+        CountDownLatch latch = new CountDownLatch(numClients);
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < numClients; i++) {
+            new FiberClient(addr, numRoundTrips, msgSize, latch, error).start(s);
+        }
+        latch.await();
+        long elapsed = System.currentTimeMillis() - begin;
+        server.close();
+        if (error.get() != null) {
+            throw new RuntimeException("Echo failed", error.get());
+        }
+        return elapsed;
+    }
+
+    static class Acceptor extends Task {
+        final FiberServerSocketChannel server;
+
+        Acceptor(FiberServerSocketChannel server) {
+            this.server = server;
+        }
+
+        public void execute() throws Pausable, Exception {
+            while (server.isOpen()) {
+                // not inlined into the constructor call: the weaver can't
+                // save uninitialized objects on the operand stack
+                FiberSocketChannel ch = server.accept();
+                new EchoHandler(ch).start(scheduler);
+            }
+        }
+    }
+
+    static class EchoHandler extends Task {
+        final FiberSocketChannel ch;
+
+        EchoHandler(FiberSocketChannel ch) {
+            this.ch = ch;
+        }
+
+        public void execute() throws Pausable, Exception {
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            try {
+                while (ch.read(buf) != -1) {
+                    buf.flip();
+                    ch.write(buf);
+                    buf.clear();
+                }
+            } finally {
+                ch.close();
+            }
+        }
+    }
+
+    static class FiberClient extends Task {
+        final SocketAddress addr;
+        final int numRoundTrips;
+        final int msgSize;
+        final CountDownLatch latch;
+        final AtomicReference<Throwable> error;
+
+        FiberClient(SocketAddress addr, int numRoundTrips, int msgSize, CountDownLatch latch, AtomicReference<Throwable> error) {
+            this.addr = addr;
+            this.numRoundTrips = numRoundTrips;
+            this.msgSize = msgSize;
+            this.latch = latch;
+            this.error = error;
+        }
+
+        public void execute() throws Pausable {
+            FiberSocketChannel ch = null;
+            try {
+                ch = FiberSocketChannel.open(addr);
+                byte[] msg = message(id, msgSize);
+                ByteBuffer out = ByteBuffer.wrap(msg);
+                ByteBuffer in = ByteBuffer.allocate(msgSize);
+                for (int i = 0; i < numRoundTrips; i++) {
+                    out.clear();
+                    ch.write(out);
+                    in.clear();
+                    while (in.hasRemaining()) {
+                        if (ch.read(in) == -1) {
+                            throw new IOException("Unexpected end of stream");
+                        }
+                    }
+                    if (!Arrays.equals(msg, in.array())) {
+                        throw new IOException("Echo mismatch");
+                    }
+                }
+            } catch (Throwable th) {
+                error.compareAndSet(null, th);
+            } finally {
+                try {
+                    if (ch != null) {
+                        ch.close();
+                    }
+                } catch (IOException ignore) {
+                }
+                latch.countDown();
+            }
+        }
+    }
+
+    static byte[] message(int seed, int size) {
+        byte[] msg = new byte[size];
+        for (int i = 0; i < size; i++) {
+            msg[i] = (byte) (seed + i);
+        }
+        return msg;
+    }
+
+    /**
+     * @return elapsed milliseconds
+     */
+    public static long runThreads(int numClients, final int numRoundTrips, final int msgSize) throws Exception {
+        final ServerSocket server = new ServerSocket();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket s = server.accept();
+                        new Thread() {
+                            public void run() {
+                                byte[] buf = new byte[4096];
+                                try {
+                                    InputStream in = s.getInputStream();
+                                    OutputStream out = s.getOutputStream();
+                                    int n;
+                                    while ((n = in.read(buf)) != -1) {
+                                        out.write(buf, 0, n);
+                                    }
+                                } catch (IOException ignore) {
+                                } finally {
+                                    close(s);
+                                }
+                            }
+                        }.start();
+                    }
+                } catch (IOException closed) {
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        final SocketAddress addr = server.getLocalSocketAddress();
+        final CountDownLatch latch = new CountDownLatch(numClients);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < numClients; i++) {
+            final int seed = i;
+            new Thread() {
+                public void run() {
+                    Socket s = new Socket();
+                    try {
+                        s.connect(addr);
+                        byte[] msg = message(seed, msgSize);
+                        byte[] in = new byte[msgSize];
+                        InputStream is = s.getInputStream();
+                        OutputStream os = s.getOutputStream();
+                        for (int i = 0; i < numRoundTrips; i++) {
+                            os.write(msg);
+                            int off = 0;
+                            while (off < msgSize) {
+                                int n = is.read(in, off, msgSize - off);
+                                if (n == -1) {
+                                    throw new IOException("Unexpected end of stream");
+                                }
+                                off += n;
+                            }
+                            if (!Arrays.equals(msg, in)) {
+                                throw new IOException("Echo mismatch");
+                            }
+                        }
+                    } catch (Throwable th) {
+                        error.compareAndSet(null, th);
+                    } finally {
+                        close(s);
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        latch.await();
+        long elapsed = System.currentTimeMillis() - begin;
+        server.close();
+        if (error.get() != null) {
+            throw new RuntimeException("Echo failed", error.get());
+        }
+        return elapsed;
+    }
+
+    static void close(Socket s) {
+        try {
+            s.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
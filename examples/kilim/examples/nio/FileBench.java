@@ -0,0 +1,162 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license 
+ * specified in the file "License"
+ */
+
+package kilim.examples.nio;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import kilim.Pausable;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.nio.FiberFile;
+import kilim.nio.LineReader;
+
+/**
+ * Counts the lines of a big file with many fibers, each reading its own
+ * slice through FiberFile and LineReader, against a single thread reading the
+ * whole file through a BufferedReader. The file is made up (in the temp
+ * directory) unless one is given.
+ * 
+ * <pre>
+ * java kilim.examples.nio.FileBench [numReaders [sizeMB [bufferSize [file]]]]
+ * </pre>
+ */
+public class FileBench {
+
+    public static void main(String[] args) throws Exception {
+        int numReaders = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long sizeMB = args.length > 1 ? Long.parseLong(args[1]) : 1024;
+        int bufferSize = args.length > 2 ? Integer.parseInt(args[2]) : 8192;
+        File file;
+        if (args.length > 3) {
+            file = new File(args[3]);
+        } else {
+            file = File.createTempFile("kilim-filebench", ".txt");
+            file.deleteOnExit();
+            makeFile(file, sizeMB << 20);
+        }
+        double mb = file.length() / (double) (1 << 20);
+        Scheduler s = new Scheduler(Scheduler.defaultNumThreads);
+        for (int round = 0; round < 3; round++) {
+            long[] fibers = runFibers(s, file, numReaders, bufferSize);
+            long[] thread = runThread(file);
+            if (fibers[1] != thread[1]) {
+                throw new RuntimeException("Line counts differ: " + fibers[1] + " != " + thread[1]);
+            }
+            System.out.println(numReaders + " readers, " + fibers[1] + " lines, fibers: " + (long) (mb * 1000 / fibers[0])
+                    + " MB/s, one thread: " + (long) (mb * 1000 / thread[0]) + " MB/s");
+        }
+        s.shutdown();
+    }
+
+    /**
+     * Fill the file with lines of varying length.
+     */
+    public static void makeFile(File file, long size) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        try {
+            StringBuilder sb = new StringBuilder();
+            long written = 0;
+            for (int i = 0; written < size; i++) {
+                sb.setLength(0);
+                sb.append("line ").append(i).append(' ');
+                for (int j = i % 97; j > 0; j--) {
+                    sb.append((char) ('a' + j % 26));
+                }
+                sb.append('\n');
+                byte[] line = sb.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(line);
+                written += line.length;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return elapsed milliseconds and the number of lines
+     */
+    public static long[] runFibers(Scheduler s, File file, int numReaders, int bufferSize) throws Exception {
+        FiberFile ff = FiberFile.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = ff.size();
+            CountDownLatch latch = new CountDownLatch(numReaders);
+            AtomicLong lines = new AtomicLong();
+            AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            long begin = System.currentTimeMillis();
+            for (int i = 0; i < numReaders; i++) {
+                long from = size * i / numReaders;
+                long to = size * (i + 1) / numReaders;
+                new Reader(new LineReader(ff, StandardCharsets.UTF_8, (byte) '\n', from, to, bufferSize), lines, latch, error).start(s);
+            }
+            latch.await();
+            long elapsed = System.currentTimeMillis() - begin;
+            if (error.get() != null) {
+                throw new RuntimeException("Read failed", error.get());
+            }
+            return new long[] { elapsed, lines.get() };
+        } finally {
+            ff.close();
+        }
+    }
+
+    static class Reader extends Task {
+        final LineReader reader;
+        final AtomicLong lines;
+        final CountDownLatch latch;
+        final AtomicReference<Throwable> error;
+
+        Reader(LineReader reader, AtomicLong lines, CountDownLatch latch, AtomicReference<Throwable> error) {
+            this.reader = reader;
+            this.lines = lines;
+            this.latch = latch;
+            this.error = error;
+        }
+
+        public void execute() throws Pausable {
+            try {
+                long n = 0;
+                while (reader.readLine() != null) {
+                    n++;
+                }
+                lines.addAndGet(n);
+            } catch (Throwable th) {
+                error.compareAndSet(null, th);
+            } finally {
+                latch.countDown();
+            }
+        }
+    }
+
+    /**
+     * @return elapsed milliseconds and the number of lines
+     */
+    public static long[] runThread(File file) throws IOException {
+        long begin = System.currentTimeMillis();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+        long n = 0;
+        try {
+            while (in.readLine() != null) {
+                n++;
+            }
+        } finally {
+            in.close();
+        }
+        return new long[] { System.currentTimeMillis() - begin, n };
+    }
+}
@@ -0,0 +1,237 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of plain threads for calls that block (JDBC drivers, legacy
+ * RPC clients, file systems), so that they do not hold up a scheduler's
+ * worker and every task queued behind it. The calling task pauses until its
+ * call is done, and is resumed from the pool thread with the result.
+ * 
+ * At most numThreads calls run at a time and maxQueued more wait for a
+ * thread. Beyond that the pool is saturated: callers pause until a call
+ * finishes, in the order they arrived, which pushes back on whatever is
+ * producing the work. getSaturatedCount() tells how often that happened.
+ * 
+ * The default pool, used by Task.runBlocking(), takes its sizes from the
+ * system properties "kilim.BlockingPool.numThreads" (default 64) and
+ * "kilim.BlockingPool.maxQueued" (default numThreads).
+ */
+public class BlockingPool implements PauseReason {
+    public static final String NUM_THREADS_PROP = "kilim.BlockingPool.numThreads";
+    public static final String MAX_QUEUED_PROP = "kilim.BlockingPool.maxQueued";
+
+    private static BlockingPool defaultPool;
+
+    private final ThreadPoolExecutor executor;
+
+    /*
+     * Calls submitted and not finished yet, and the most allowed
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final int maxInFlight;
+
+    /*
+     * Tasks paused on a saturated pool, in arrival order
+     */
+    private final ConcurrentLinkedQueue<Task> waiters = new ConcurrentLinkedQueue<Task>();
+
+    private final AtomicLong saturated = new AtomicLong();
+
+    public BlockingPool(int numThreads, int maxQueued) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("numThreads must be positive: " + numThreads);
+        if (maxQueued < 0)
+            throw new IllegalArgumentException("Illegal maxQueued: " + maxQueued);
+        maxInFlight = numThreads + maxQueued;
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "KilimBlocking-" + count.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized BlockingPool getDefaultPool() {
+        if (defaultPool == null) {
+            int n = Integer.getInteger(NUM_THREADS_PROP, 64);
+            defaultPool = new BlockingPool(n, Integer.getInteger(MAX_QUEUED_PROP, n));
+        }
+        return defaultPool;
+    }
+
+    public static synchronized void setDefaultPool(BlockingPool p) {
+        defaultPool = p;
+    }
+
+    /**
+     * Run the callable on a pool thread, and pause the current task until it
+     * is done (or, first, until the pool has room for it). The task must have
+     * been started on a scheduler.
+     * 
+     * @return what the callable returned
+     * @throws Exception
+     *             whatever the callable threw, as it was thrown
+     */
+    public <T> T call(Callable<T> callable) throws Pausable, Exception {
+        while (!tryAcquire()) {
+            Task t = Task.getCurrentTask();
+            waiters.offer(t);
+            boolean paused = false;
+            try {
+                // recheck after registering, a call may have finished meanwhile
+                if (tryAcquire())
+                    break;
+                saturated.incrementAndGet();
+                Task.pause(this);
+                paused = true;
+            } finally {
+                // resumed by release() but not pausing (any more): the room
+                // goes to the next waiter
+                if (!waiters.remove(t) && !paused) {
+                    wakeWaiter();
+                }
+            }
+        }
+        Call<T> call = new Call<T>(this, Task.getCurrentTask(), callable);
+        try {
+            executor.execute(call);
+        } catch (RejectedExecutionException e) {
+            release();
+            throw e;
+        }
+        while (!call.done) {
+            Task.pause(call);
+        }
+        Throwable th = call.failure;
+        if (th != null) {
+            if (th instanceof Exception)
+                throw (Exception) th;
+            throw (Error) th;
+        }
+        return call.result;
+    }
+
+    private boolean tryAcquire() {
+        int n;
+        do {
+            n = inFlight.get();
+            if (n >= maxInFlight)
+                return false;
+        } while (!inFlight.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+        wakeWaiter();
+    }
+
+    /*
+     * Resume the first paused waiter. Those that are done (cancelled while
+     * they waited) or already resumed are dropped.
+     */
+    private void wakeWaiter() {
+        Task w;
+        while ((w = waiters.poll()) != null) {
+            if (w.resume())
+                return;
+        }
+    }
+
+    /**
+     * Calls that have been handed to the pool and are not done yet, running
+     * or queued.
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Calls running on a pool thread right now.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Tasks paused because the pool was saturated.
+     */
+    public int getWaitingCount() {
+        return waiters.size();
+    }
+
+    /**
+     * Number of times a caller had to pause because the pool was saturated.
+     */
+    public long getSaturatedCount() {
+        return saturated.get();
+    }
+
+    public boolean isSaturated() {
+        return inFlight.get() >= maxInFlight;
+    }
+
+    /**
+     * Stop accepting calls. Calls already handed over still run to the end.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public String toString() {
+        return "blockingPool(inFlight = " + inFlight.get() + ", max = " + maxInFlight + ", waiting = " + waiters.size() + ")";
+    }
+
+    /*
+     * A call handed to the pool, and the pause reason of its caller.
+     */
+    static final class Call<T> implements Runnable, PauseReason {
+        private final BlockingPool pool;
+        private final Task task;
+        private final Callable<T> callable;
+        T result;
+        Throwable failure;
+        volatile boolean done;
+
+        Call(BlockingPool pool, Task task, Callable<T> callable) {
+            this.pool = pool;
+            this.task = task;
+            this.callable = callable;
+        }
+
+        public void run() {
+            try {
+                result = callable.call();
+            } catch (Throwable th) {
+                failure = th;
+            }
+            pool.release();
+            done = true;
+            task.resume();
+        }
+
+        public String toString() {
+            return "blocking(" + callable + ")";
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A Go-style channel between any number of senders and receivers. A channel
+ * with a capacity of zero is a rendezvous: send() pauses until a receiver
+ * takes the message. A buffered channel pauses senders only while its buffer
+ * is full. Several channels may be waited on at once through a Select.
+ *
+ * A message is handed to exactly one waiting receiver (or a waiting sender
+ * is let in for exactly one free slot), and only that task is resumed. Tasks
+ * waiting in a Select on several channels are taken by the first channel to
+ * claim them; the others drop them. A task that is cancelled (or misses its
+ * deadline) while waiting takes itself off the queues, and a message that was
+ * handed to it in the meantime goes to the next receiver instead.
+ *
+ * Each channel has a lock that is held for the few instructions it takes to
+ * match a sender with a receiver; it is never held while a task is paused.
+ * Null messages are not allowed.
+ */
+public class Channel<T> {
+    private static final AtomicLong nextOrder = new AtomicLong();
+
+    /*
+     * Select locks all its channels in this order, to stay clear of
+     * deadlocks.
+     */
+    final long order = nextOrder.getAndIncrement();
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    private final int capacity;
+    private final ArrayDeque<T> buf;
+    private final ArrayDeque<Waiter<T>> recvq = new ArrayDeque<Waiter<T>>();
+    private final ArrayDeque<Waiter<T>> sendq = new ArrayDeque<Waiter<T>>();
+    private boolean closed;
+
+    /**
+     * A rendezvous channel.
+     */
+    public Channel() {
+        this(0);
+    }
+
+    public Channel(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        this.capacity = capacity;
+        buf = new ArrayDeque<T>(Math.max(capacity, 1));
+    }
+
+    /**
+     * Send a message, pausing the task until a receiver has taken it (or, if
+     * the channel is buffered, until there is room for it).
+     * 
+     * @throws IllegalStateException
+     *             if the channel is, or gets, closed.
+     */
+    public void send(T msg) throws Pausable {
+        if (msg == null)
+            throw new NullPointerException("Null message supplied to send");
+        Waiter<T> w;
+        lock.lock();
+        try {
+            if (sendLocked(msg))
+                return;
+            w = new Waiter<T>(Task.getCurrentTask(), msg);
+            sendq.offer(w);
+        } finally {
+            lock.unlock();
+        }
+        boolean done = false;
+        try {
+            while (!w.isDone()) {
+                Task.pause(w);
+            }
+            done = true;
+        } finally {
+            if (!done)
+                withdraw(w, true);
+        }
+        if (w.closed)
+            throw new IllegalStateException("Channel closed");
+    }
+
+    /**
+     * Receive a message, pausing the task until there is one.
+     * 
+     * @return null if the channel has been closed (and its buffer drained)
+     */
+    public T recv() throws Pausable {
+        Waiter<T> w;
+        lock.lock();
+        try {
+            T msg = recvLocked();
+            if (msg != null || closed)
+                return msg;
+            w = new Waiter<T>(Task.getCurrentTask(), null);
+            recvq.offer(w);
+        } finally {
+            lock.unlock();
+        }
+        boolean done = false;
+        try {
+            while (!w.isDone()) {
+                Task.pause(w);
+            }
+            done = true;
+        } finally {
+            if (!done)
+                withdraw(w, false);
+        }
+        return w.value;
+    }
+
+    /**
+     * Non-pausable send, may be called from any thread.
+     * 
+     * @return false if no receiver was waiting and there was no room in the
+     *         buffer.
+     */
+    public boolean sendnb(T msg) {
+        if (msg == null)
+            throw new NullPointerException("Null message supplied to sendnb");
+        lock.lock();
+        try {
+            return sendLocked(msg);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Non-pausable receive, may be called from any thread.
+     * 
+     * @return null if there was nothing to receive.
+     */
+    public T recvnb() {
+        lock.lock();
+        try {
+            return recvLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the channel. Buffered messages can still be received, after
+     * which recv() returns null. Paused senders fail, and paused receivers
+     * get null.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            Waiter<T> w;
+            while ((w = recvq.poll()) != null) {
+                w.closed = true;
+                w.value = null;
+                w.claim();
+            }
+            while ((w = sendq.poll()) != null) {
+                w.closed = true;
+                w.claim();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * The waiter's task has stopped waiting: take it off the queue, unless a
+     * peer claimed it first, in which case a message meant for it goes to
+     * the next receiver. A sender claimed first has had its message taken.
+     */
+    private void withdraw(Waiter<T> w, boolean send) {
+        lock.lock();
+        try {
+            if (w.token.compareAndSet(0, Waiter.CANCELLED))
+                dequeue(w, send);
+            else if (!send && !w.closed)
+                requeueLocked(w.value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /*
+     * The rest is called with the lock held.
+     */
+
+    boolean sendLocked(T msg) {
+        if (closed)
+            throw new IllegalStateException("Channel closed");
+        Waiter<T> w;
+        while ((w = recvq.poll()) != null) {
+            // set before the claim, the receiver may look as soon as it is
+            // claimed; harmless if somebody else got there first
+            w.value = msg;
+            if (w.claim())
+                return true;
+        }
+        if (buf.size() < capacity) {
+            buf.offer(msg);
+            return true;
+        }
+        return false;
+    }
+
+    T recvLocked() {
+        T msg = buf.poll();
+        // a message given back by requeueLocked() may have left the buffer
+        // over capacity, in which case no sender is let in yet
+        if (msg != null && buf.size() >= capacity)
+            return msg;
+        Waiter<T> w;
+        while ((w = sendq.poll()) != null) {
+            if (w.claim()) {
+                if (msg == null)
+                    return w.value;
+                // the sender takes the slot just freed
+                buf.offer(w.value);
+                break;
+            }
+        }
+        return msg;
+    }
+
+    /*
+     * Give back a message whose receiver has gone: to the next receiver
+     * waiting, or else to the head of the buffer, over capacity if need be.
+     */
+    void requeueLocked(T msg) {
+        Waiter<T> w;
+        while ((w = recvq.poll()) != null) {
+            w.value = msg;
+            if (w.claim())
+                return;
+        }
+        buf.offerFirst(msg);
+    }
+
+    void enqueue(Waiter<T> w, boolean send) {
+        (send ? sendq : recvq).offer(w);
+    }
+
+    void dequeue(Waiter<T> w, boolean send) {
+        (send ? sendq : recvq).remove(w);
+    }
+
+    boolean isClosedLocked() {
+        return closed;
+    }
+
+    public String toString() {
+        lock.lock();
+        try {
+            return "channel(size = " + buf.size() + ", capacity = " + capacity + (closed ? ", closed" : "") + ")";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A task waiting on a channel, alone or as one case of a Select. The
+     * token decides which channel gets the task: the first to move it from 0
+     * to its case number + 1 wins; the task itself sets it to CANCELLED when
+     * it stops waiting. A lone waiter has a token of its own, the waiters of
+     * a Select share the select's.
+     */
+    static final class Waiter<T> implements PauseReason {
+        static final int CANCELLED = -3;
+
+        final Task task;
+        final AtomicInteger token;
+        final int caseIndex;
+        T value;
+        boolean closed;
+
+        Waiter(Task task, T value) {
+            this(task, value, new AtomicInteger(), 0);
+        }
+
+        Waiter(Task task, T value, AtomicInteger token, int caseIndex) {
+            this.task = task;
+            this.value = value;
+            this.token = token;
+            this.caseIndex = caseIndex;
+        }
+
+        /*
+         * Take the task for this channel and resume it; false if it has
+         * been taken already, or has stopped waiting. Called with the
+         * channel locked, so a task that is withdrawing cannot finish
+         * before this looks at it: one that is done here left without
+         * withdrawing and cannot take anything.
+         */
+        boolean claim() {
+            if (!token.compareAndSet(0, caseIndex + 1))
+                return false;
+            return task.resume() || !task.isDone();
+        }
+
+        boolean isDone() {
+            return token.get() != 0;
+        }
+
+        public String toString() {
+            return "channel waiter(" + (isDone() ? "taken" : "waiting") + ")";
+        }
+    }
+}
@@ -50,9 +50,17 @@ public interface Constants extends Opcodes {
     String TASK_CLASS       = "kilim/Task";
     String PAUSABLE_CLASS   = "kilim/Pausable";
     String NOT_PAUSABLE_CLASS   = "kilim/NotPausable";
+    String FIBER_MONITORS_CLASS = "kilim/sync/FiberMonitors";
     
     String  WOVEN_FIELD     = "$isWoven";
 
+    /**
+     * Lists the woven pausable methods of a class with their line ranges, as
+     * "name:first-last;..." (with an empty range for methods without line
+     * numbers). Read back by kilim.PausableMethods.
+     */
+    String  PAUSABLE_METHODS_FIELD = "$pausableMethods";
+
     // Constant opcodes missing from asm's opcodes (as of asm 3.0)
     int    ILOAD_0          = 26;
     int    LLOAD_0          = 30;
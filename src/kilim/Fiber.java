@@ -40,14 +40,27 @@ public final class Fiber {
 
     /*
      * One State object for each activation frame in the call hierarchy.
+     * Fibers that never pause never need one, so the real array is only
+     * allocated by the first setState().
      */
-    private State[] stateStack = new State[10];
+    private State[] stateStack = NO_STATES;
+
+    private static final State[] NO_STATES = new State[0];
+
+    private static final int INITIAL_STACK_SIZE = 10;
 
     /*
      * Index into stateStack and equal to depth of call hierarchy - 1
      */
     private int iStack = -1;
 
+    /*
+     * States released by up() on resumption, kept per depth for the next pause
+     * at that depth (see spareState()). Only allocated once code woven with
+     * state reuse asks for a spare.
+     */
+    private State[] spareStates;
+
     boolean isPausing;
 
     boolean isDone;
@@ -134,13 +147,13 @@ public final class Fiber {
         if (isPausing) {
             // if (debug) System.out.println("\nup(pausing)" + this);;
             // if (debug) ds();
-            return (stateStack[d] == null) ? PAUSING__NO_STATE : PAUSING__HAS_STATE;
+            return (d >= stateStack.length || stateStack[d] == null) ? PAUSING__NO_STATE : PAUSING__HAS_STATE;
             // not setting curState because the generated code is only
             // interested in knowing whether we have state or not.
         } else {
             // move up to caller's level
             State[] stack = stateStack;
-            State cs = curState = stack[d];
+            State cs = curState = (d < stack.length) ? stack[d] : null;
             if (cs == null) {
                 pc = 0;
                 // if (debug) System.out.println("\nup(not pausing)" + this);;
@@ -148,6 +161,10 @@ public final class Fiber {
                 return NOT_PAUSING__NO_STATE;
             } else {
                 stack[d] = null; // clean up
+                State[] spares = spareStates;
+                if (spares != null && cs != PAUSE_STATE) {
+                    spares[d] = cs;
+                }
                 pc = cs.pc;
                 // if (debug) System.out.println("\nup(not pausing)" + this);;
                 // if (debug) ds();
@@ -169,7 +186,10 @@ public final class Fiber {
 
         if (isDone) {
             // clean up callee's state
-            stateStack[0] = null;
+            if (stateStack.length > 0) {
+                stateStack[0] = null;
+            }
+            spareStates = null;
         }
         // reset pausing for next round.
         isPausing = false;
@@ -189,8 +209,7 @@ public final class Fiber {
     public Fiber down() {
         int d = ++iStack;
         if (d >= stateStack.length) {
-            // System.out.println("size == " + d);
-            ensureSize(d * 2);
+            // nothing saved this deep; the stack grows in setState()
             pc = 0;
             curState = null;
         } else {
@@ -198,6 +217,11 @@ public final class Fiber {
             curState = s;
             pc = (s == null) ? 0 : s.pc;
         }
+        // a cancellation point, unless we are rewinding; a rewound task gets
+        // its exception where it paused, with all its frames in place
+        if (pc == 0 && task.cancelled) {
+            task.checkKill();
+        }
         // if (debug) System.out.println("down:\n" + this);
         // if (debug) ds();
         return this;
@@ -214,13 +238,49 @@ public final class Fiber {
         }
     }
 
+    /**
+     * The depth (iStack) of the currently executing pausable frame. The woven
+     * prelude of a method that has catch handlers covering pausable calls
+     * records this value on entry, and hands it back to upEx(int) when an
+     * exception is caught.
+     */
+    public int depth() {
+        return iStack;
+    }
+
     /**
      * In the normal (non-exception) scheme of things, the iStack is incremented
      * by down() on the way down and decremented by a corresponding up() when
      * returning or pausing. If, however, an exception is thrown, we lose track
-     * of where we are in the hierarchy. We recalibrate iStack by creating a
-     * dummy exception and comparing it to the stack depth of an exception taken
-     * earlier. This is done in scheduler.getStackDepth(); A sample stack trace
+     * of where we are in the hierarchy. The generated code remembers the depth
+     * of each frame on entry (see depth()) and passes it in here, so all that
+     * is needed is to release the states of the frames that have been unwound
+     * by the exception.
+     * 
+     * @param depth
+     *            the iStack of the method that caught the exception, as
+     *            recorded on its entry.
+     * @return Fiber.pc (note: in contrast up() returns status)
+     */
+    public int upEx(int depth) {
+        int is = depth;
+        State[] stack = stateStack;
+        State cs = (is < stack.length) ? stack[is] : null;
+
+        for (int i = Math.min(iStack, stack.length - 1); i >= is; i--) {
+            stack[i] = null; // release state
+        }
+
+        iStack = is;
+        curState = cs;
+        return (cs == null) ? 0 : cs.pc;
+    }
+
+    /**
+     * Fallback for code woven by older versions of the weaver, which do not
+     * record the frame depth on method entry. We recalibrate iStack by creating
+     * a dummy exception and comparing it to the stack depth of an exception
+     * taken earlier. This is done in task.getStackDepth(); A sample stack trace
      * of the dummy exception looks as follows
      * 
      * <pre>
@@ -233,10 +293,8 @@ public final class Fiber {
      * </pre>
      * 
      * We have to figure out the stack depth (iStack) of the method that caught
-     * the exception and called upEx ("normalCatch" here). The call stack below
-     * runExecute may be owned by the scheduler, which may permit more than one
-     * task to build up on the stack. For this reason, we let the scheduler tell
-     * us the depth of upEx below the task's execute().
+     * the exception and called upEx ("normalCatch" here). This walks the whole
+     * stack trace and is expensive, hence only kept for compatibility.
      * 
      * @return Fiber.pc (note: in contrast up() returns status)
      */
@@ -244,18 +302,7 @@ public final class Fiber {
         // compute new iStack.
         int is = task.getStackDepth() - 2; // remove upEx and convert to 0-based
                                            // index.
-        if (is >= stateStack.length)
-            ensureSize(is + 1);
-
-        State cs = stateStack[is];
-
-        for (int i = iStack; i >= is; i--) {
-            stateStack[i] = null; // release state
-        }
-
-        iStack = is;
-        curState = cs;
-        return (cs == null) ? 0 : cs.pc;
+        return upEx(is);
     }
 
     /**
@@ -277,12 +324,49 @@ public final class Fiber {
 
     private State[] ensureSize(int newsize) {
         // System.out.println("ENSURE SIZE = " + newsize);
+        newsize = Math.max(newsize, INITIAL_STACK_SIZE);
         State[] newStack = new State[newsize];
         System.arraycopy(stateStack, 0, newStack, 0, stateStack.length);
         stateStack = newStack;
+        if (spareStates != null) {
+            State[] newSpares = new State[newsize];
+            System.arraycopy(spareStates, 0, newSpares, 0, spareStates.length);
+            spareStates = newSpares;
+        }
         return newStack;
     }
 
+    /**
+     * Called by code woven with state reuse (see ClassWeaver.reuseStates)
+     * when the current frame is about to pause and has no state yet. Returns
+     * the state this frame restored from when it was last resumed, if any, so
+     * that the generated code can overwrite it instead of allocating a new
+     * one. The caller must check the class of the returned state, since the
+     * frame at this depth need not be the same method as last time.
+     * 
+     * @return the spare state for the current depth, or null
+     */
+    public State spareState() {
+        State[] spares = spareStates;
+        if (spares == null) {
+            spareStates = new State[stateStack.length];
+            return null;
+        }
+        int d = iStack;
+        State s = spares[d];
+        spares[d] = null;
+        return s;
+    }
+
+    /*
+     * Whether code woven with state reuse has asked for a spare during this
+     * run. Callers other than woven code (PausableInvoker) check this first,
+     * so that they do not switch reuse on for fibers that never asked.
+     */
+    boolean reusesStates() {
+        return spareStates != null;
+    }
+
     /**
      * Called by the generated code before pausing and unwinding its stack
      * frame.
@@ -290,13 +374,18 @@ public final class Fiber {
      * @param state
      */
     public void setState(State state) {
-        stateStack[iStack] = state;
+        int d = iStack;
+        if (d >= stateStack.length) {
+            ensureSize(d * 2);
+        }
+        stateStack[d] = state;
         isPausing = true;
         // System.out.println("setState[" + + iStack + "] = " + this);
     }
 
     public State getState() {
-        return stateStack[iStack];
+        int d = iStack;
+        return (d < stateStack.length) ? stateStack[d] : null;
     }
 
     void togglePause() {
@@ -357,4 +446,21 @@ public final class Fiber {
     void clearPausing() {
         isPausing = false;
     }
+
+    /**
+     * Forget everything about earlier runs, so that the owning task can be
+     * run again from the start. The state stack, if any, is kept for reuse.
+     */
+    void reset() {
+        State[] stack = stateStack;
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = null;
+        }
+        spareStates = null;
+        curState = null;
+        pc = 0;
+        iStack = -1;
+        isPausing = false;
+        isDone = false;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The task counterpart of ThreadLocal. A task may run on a different carrier
+ * thread after every pause, so thread locals are of no use for per-task
+ * context. Values of fiber locals are kept in a small array on the task
+ * itself, and each FiberLocal owns one slot of it, so get() and set() are an
+ * array access each; there is no hashing.
+ *
+ * A task may inherit the values of another (its parent) through
+ * Task.inheritLocals(). The array is then shared until either side sets a
+ * value, at which point that side takes a private copy.
+ *
+ * Slots are never recycled, so fiber locals are meant to be kept in static
+ * fields, not created per task or per request.
+ */
+public class FiberLocal<T> {
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+
+    final int index = nextIndex.getAndIncrement();
+
+    static int count() {
+        return nextIndex.get();
+    }
+
+    /**
+     * The value of a task that has not set one. Called on the first get() by
+     * each task; like ThreadLocal, returns null unless overridden.
+     */
+    protected T initialValue() {
+        return null;
+    }
+
+    public T get() throws Pausable {
+        return get(Task.getCurrentTask());
+    }
+
+    public void set(T value) throws Pausable {
+        set(Task.getCurrentTask(), value);
+    }
+
+    public void remove() throws Pausable {
+        set(Task.getCurrentTask(), null);
+    }
+
+    /**
+     * Non-pausable get, for code that already has hold of the task. Must
+     * only be called by the task itself or while it is not running.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(Task t) {
+        Object[] locals = t.locals;
+        if (index < locals.length) {
+            Object v = locals[index];
+            if (v != null)
+                return (T) v;
+        }
+        T v = initialValue();
+        if (v != null) {
+            set(t, v);
+        }
+        return v;
+    }
+
+    public void set(Task t, T value) {
+        t.localsForWrite(index)[index] = value;
+    }
+
+    public String toString() {
+        return "fiberlocal(" + index + ")";
+    }
+}
@@ -8,6 +8,12 @@ package kilim;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A Generator, from the caller's perspective, looks like a normal iterator 
@@ -39,6 +45,12 @@ import java.util.NoSuchElementException;
 public abstract class Generator<T> extends Task implements Iterator<T>, Iterable<T> {
     T nextVal;
 
+    /*
+     * The array being filled by nextBatch(), and the number of elements in it
+     */
+    Object[] batch;
+    int batchSize;
+
     public boolean hasNext() {
         if (nextVal == null) {
             if (isDone())
@@ -66,6 +78,76 @@ public abstract class Generator<T> extends Task implements Iterator<T>, Iterable
         return ret;
     }
 
+    /*
+     * Fused operators, see Pipeline
+     */
+
+    public <R> Pipeline<R> map(Function<? super T, ? extends R> f) {
+        return new Pipeline.Source<T>(this).map(f);
+    }
+
+    public Pipeline<T> filter(Predicate<? super T> p) {
+        return new Pipeline.Source<T>(this).filter(p);
+    }
+
+    public <R> Pipeline<R> flatMap(Function<? super T, ? extends Iterable<? extends R>> f) {
+        return new Pipeline.Source<T>(this).flatMap(f);
+    }
+
+    public Pipeline<T> take(long n) {
+        return new Pipeline.Source<T>(this).take(n);
+    }
+
+    /**
+     * Run the generator ahead of its consumer on one of the executor's
+     * threads, buffering up to depth values, so that producing and consuming
+     * overlap. The generator pauses whenever the buffer is full. The
+     * generator itself must not be used any more after this, only the
+     * returned iterator; the latter is meant for a single consumer thread.
+     * 
+     * @throws IllegalStateException
+     *             if the generator has been started on a scheduler.
+     */
+    public Iterator<T> prefetch(int depth, Executor executor) {
+        if (scheduler != null)
+            throw new IllegalStateException("Generator " + id + " is running on a scheduler");
+        return new PrefetchIterator<T>(this, depth, executor);
+    }
+
+    /**
+     * Fill the array with the next elements. In the meantime, yield() stores
+     * each value straight into the array and only pauses the generator when
+     * the array is full, so a whole batch costs a single resume of the
+     * generator's stack instead of one per element.
+     * 
+     * Fewer elements than out.length are returned if the generator finishes,
+     * or if it pauses other than through yield(T).
+     * 
+     * @return the number of elements stored at the start of out; 0 if the
+     *         generator is done (or out is empty), but also if it paused
+     *         before yielding anything. Loop until isDone() to drain it.
+     */
+    public int nextBatch(T[] out) {
+        int n = 0;
+        if (out.length == 0)
+            return 0;
+        if (nextVal != null) {
+            out[n++] = nextVal;
+            nextVal = null;
+        }
+        if (n < out.length && !isDone()) {
+            batch = out;
+            batchSize = n;
+            try {
+                _runExecute();
+            } finally {
+                n = batchSize;
+                batch = null;
+            }
+        }
+        return n;
+    }
+
     public void remove() {
         throw new AssertionError("Not Supported");
     }
@@ -74,8 +156,49 @@ public abstract class Generator<T> extends Task implements Iterator<T>, Iterable
         return this;
     }
 
+    /**
+     * A spliterator that splits by draining chunks of the generator into
+     * arrays, so that a parallel stream can process earlier chunks on other
+     * threads while the generator produces the next. The generator itself is
+     * still run by one thread at a time.
+     */
+    public Spliterator<T> spliterator() {
+        return new GeneratorSpliterator<T>(this);
+    }
+
+    /**
+     * A sequential stream of the generator's values; call parallel() on it to
+     * spread the downstream stages over the common ForkJoinPool.
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public void reset() {
+        super.reset();
+        nextVal = null;
+        batch = null;
+    }
+
+    /**
+     * Hand a value to the consumer. Pauses the generator, unless the consumer
+     * is collecting a batch (see nextBatch()) that still has room.
+     */
     public void yield(T val) throws Pausable {
-        nextVal = val;
+        Object[] b = batch;
+        if (b != null) {
+            b[batchSize++] = val;
+            if (batchSize < b.length)
+                return;
+        } else {
+            nextVal = val;
+        }
         Task.yield();
     }
+
+    public void yieldAll(Iterable<? extends T> vals) throws Pausable {
+        for (T val : vals) {
+            this.yield(val);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * The spliterator of a Generator. trySplit() drains the next chunk of the
+ * generator into an array (with nextBatch(), so at the cost of a single
+ * resume), and hands that out as a sized spliterator that other threads can
+ * work on while this one goes on producing. Chunks grow arithmetically, as in
+ * the JDK's iterator spliterators, so that short generators are not split
+ * too coarsely and long ones not too finely.
+ * 
+ * A generator may pause without yielding a value, so an empty step does not
+ * mean the end; only isDone() does.
+ */
+final class GeneratorSpliterator<T> implements Spliterator<T> {
+    static final int BATCH_UNIT = 1 << 10;
+    static final int MAX_BATCH  = 1 << 25;
+
+    private final Generator<T> gen;
+    private int batch;
+
+    GeneratorSpliterator(Generator<T> gen) {
+        this.gen = gen;
+    }
+
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (action == null)
+            throw new NullPointerException();
+        while (!gen.hasNext()) {
+            if (gen.isDone())
+                return false;
+        }
+        action.accept(gen.next());
+        return true;
+    }
+
+    public void forEachRemaining(Consumer<? super T> action) {
+        if (action == null)
+            throw new NullPointerException();
+        @SuppressWarnings("unchecked")
+        T[] buf = (T[]) new Object[BATCH_UNIT];
+        int n;
+        while ((n = gen.nextBatch(buf)) > 0 || !gen.isDone()) {
+            for (int i = 0; i < n; i++) {
+                action.accept(buf[i]);
+                buf[i] = null;
+            }
+        }
+    }
+
+    public Spliterator<T> trySplit() {
+        if (gen.isDone())
+            return null;
+        int size = batch + BATCH_UNIT;
+        if (size > MAX_BATCH)
+            size = MAX_BATCH;
+        @SuppressWarnings("unchecked")
+        T[] chunk = (T[]) new Object[size];
+        int n;
+        while ((n = gen.nextBatch(chunk)) == 0) {
+            if (gen.isDone())
+                return null;
+        }
+        batch = n;
+        return Spliterators.spliterator(chunk, 0, n, characteristics());
+    }
+
+    public long estimateSize() {
+        return gen.isDone() ? 0 : Long.MAX_VALUE;
+    }
+
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
@@ -0,0 +1,132 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A Generator of int values. Values are yielded and handed out as
+ * primitives, so unlike Generator&lt;Integer&gt; nothing is boxed on the way.
+ * The boxing methods of Iterator&lt;Integer&gt; still work, but callers should
+ * use nextInt(), forEachRemaining(IntConsumer) or stream() instead.
+ * 
+ * <pre>
+ * class Range extends IntGenerator {
+ *     public void execute() throws Pausable {
+ *         for (int i = 0; i &lt; 1000; i++) {
+ *             yield(i);
+ *         }
+ *     }
+ * }
+ * </pre>
+ * 
+ * @see Generator
+ */
+public abstract class IntGenerator extends Task implements PrimitiveIterator.OfInt, Iterable<Integer> {
+    int nextVal;
+    boolean hasVal;
+
+    /*
+     * The array being filled by nextBatch(), and the number of elements in it
+     */
+    int[] batch;
+    int batchSize;
+
+    public boolean hasNext() {
+        if (!hasVal) {
+            if (isDone())
+                return false;
+            _runExecute();
+        }
+        return hasVal;
+    }
+
+    public int nextInt() {
+        if (!hasVal) {
+            if (isDone())
+                throw new NoSuchElementException();
+            _runExecute();
+            if (!hasVal)
+                throw new NoSuchElementException();
+        }
+        hasVal = false;
+        return nextVal;
+    }
+
+    /**
+     * Fill the array with the next values, pausing the generator only when
+     * the array is full. See Generator.nextBatch().
+     * 
+     * @return the number of values stored at the start of out; 0 if the
+     *         generator is done (or out is empty), but also if it paused
+     *         before yielding anything. Loop until isDone() to drain it.
+     */
+    public int nextBatch(int[] out) {
+        int n = 0;
+        if (out.length == 0)
+            return 0;
+        if (hasVal) {
+            out[n++] = nextVal;
+            hasVal = false;
+        }
+        if (n < out.length && !isDone()) {
+            batch = out;
+            batchSize = n;
+            try {
+                _runExecute();
+            } finally {
+                n = batchSize;
+                batch = null;
+            }
+        }
+        return n;
+    }
+
+    public void remove() {
+        throw new AssertionError("Not Supported");
+    }
+
+    public PrimitiveIterator.OfInt iterator() {
+        return this;
+    }
+
+    public Spliterator.OfInt spliterator() {
+        return Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    public IntStream stream() {
+        return StreamSupport.intStream(spliterator(), false);
+    }
+
+    public void reset() {
+        super.reset();
+        hasVal = false;
+        batch = null;
+    }
+
+    /**
+     * Hand a value to the consumer. Pauses the generator, unless the consumer
+     * is collecting a batch that still has room.
+     */
+    public void yield(int val) throws Pausable {
+        int[] b = batch;
+        if (b != null) {
+            b[batchSize++] = val;
+            if (batchSize < b.length)
+                return;
+        } else {
+            nextVal = val;
+            hasVal = true;
+        }
+        Task.yield();
+    }
+}
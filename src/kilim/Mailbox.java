@@ -0,0 +1,186 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A bounded, multi-producer single-consumer mailbox. Messages are kept in a
+ * lock-free ring; producers claim a slot by bumping the tail with a CAS, and
+ * the (only) consumer frees slots by advancing the head.
+ *
+ * get() pauses the consumer when the mailbox is empty, and put() pauses a
+ * producer when the mailbox is full. Both are resumed through Task.resume(),
+ * so the tasks involved are expected to run on a Scheduler; the non-pausable
+ * getnb() and putnb() work from any thread.
+ *
+ * Only one task may call get() on a given mailbox. Null messages are not
+ * allowed.
+ */
+public class Mailbox<T> implements PauseReason {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicReferenceArray<T> ring;
+    private final int mask;
+
+    /*
+     * Next slot to be read (consumer) and next slot to be claimed (producers).
+     * tail - head is the number of messages in the ring.
+     */
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /*
+     * The consumer, if it is paused (or about to pause) on an empty mailbox
+     */
+    private volatile Task consumer;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Mailbox, Task> consumerUpdater = AtomicReferenceFieldUpdater.newUpdater(
+            Mailbox.class, Task.class, "consumer");
+
+    /*
+     * Producers paused on a full mailbox, in arrival order
+     */
+    private final ConcurrentLinkedQueue<Task> producers = new ConcurrentLinkedQueue<Task>();
+
+    public Mailbox() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            rounded up to the next power of two
+     */
+    public Mailbox(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30))
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        ring = new AtomicReferenceArray<T>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Get the next message, pausing the task until there is one.
+     */
+    public T get() throws Pausable {
+        T msg = getnb();
+        while (msg == null) {
+            consumer = Task.getCurrentTask();
+            try {
+                // recheck after registering, a producer may have slipped in
+                msg = getnb();
+                if (msg != null)
+                    break;
+                Task.pause(this);
+            } finally {
+                consumer = null;
+            }
+            msg = getnb();
+        }
+        return msg;
+    }
+
+    /**
+     * Put a message, pausing the task while the mailbox is full.
+     */
+    public void put(T msg) throws Pausable {
+        while (!putnb(msg)) {
+            Task t = Task.getCurrentTask();
+            producers.offer(t);
+            boolean paused = false;
+            try {
+                // recheck after registering, the consumer may have made room
+                if (putnb(msg))
+                    break;
+                Task.pause(this);
+                paused = true;
+            } finally {
+                // resumed by getnb() but not pausing (any more): the room
+                // goes to the next producer
+                if (!producers.remove(t) && !paused) {
+                    wakeProducer();
+                }
+            }
+        }
+    }
+
+    /**
+     * Non-pausable get, to be called by the consumer only.
+     *
+     * @return the next message, or null if the mailbox is empty
+     */
+    public T getnb() {
+        long h = head.get();
+        int i = (int) h & mask;
+        T msg = ring.get(i);
+        if (msg == null) {
+            if (h == tail.get())
+                return null;
+            // a producer has claimed the slot but not filled it yet
+            while ((msg = ring.get(i)) == null) {
+                Thread.yield();
+            }
+        }
+        ring.lazySet(i, null);
+        head.set(h + 1);
+        if (!producers.isEmpty()) {
+            wakeProducer();
+        }
+        return msg;
+    }
+
+    /*
+     * Resume the first paused producer. Those that are done (cancelled while
+     * waiting) or already resumed are dropped.
+     */
+    private void wakeProducer() {
+        Task p;
+        while ((p = producers.poll()) != null) {
+            if (p.resume())
+                return;
+        }
+    }
+
+    /**
+     * Non-pausable put, may be called from any thread.
+     *
+     * @return false if the mailbox is full
+     */
+    public boolean putnb(T msg) {
+        if (msg == null)
+            throw new NullPointerException("Null message supplied to putnb");
+        long t;
+        do {
+            t = tail.get();
+            if (t - head.get() > mask)
+                return false;
+        } while (!tail.compareAndSet(t, t + 1));
+        ring.lazySet((int) t & mask, msg);
+        Task c = consumer;
+        if (c != null && consumerUpdater.compareAndSet(this, c, null)) {
+            c.resume();
+        }
+        return true;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public String toString() {
+        return "mailbox(size = " + size() + ", capacity = " + capacity() + ")";
+    }
+}
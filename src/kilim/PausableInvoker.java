@@ -0,0 +1,245 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Invokes a pausable method reflectively, like Task.invoke(), but resolves
+ * the woven "(..., Fiber)" overload only once, into a MethodHandle. Invokers
+ * are cached per method, in a table that belongs to the method's declaring
+ * class and goes away with it; get one with PausableInvoker.of(method) and
+ * keep it.
+ * 
+ * The fixed-arity invoke() variants pass their arguments straight to the
+ * handle, without an argument array. invokeArgs() takes any number of
+ * arguments. Neither allocates anything when the method returns normally, and
+ * a pausing invocation reuses the fiber's spare state where it can (see
+ * Fiber.spareState()).
+ * 
+ * Arguments are not checked against the parameter types up front; passing an
+ * argument of the wrong type shows up as a ClassCastException wrapped in the
+ * InvocationTargetException. A TaskCancelledException from within the method
+ * is not wrapped, it goes on unwinding the task.
+ */
+public final class PausableInvoker {
+    private static final ClassValue<ConcurrentHashMap<Method, PausableInvoker>> byClass = new ClassValue<ConcurrentHashMap<Method, PausableInvoker>>() {
+        protected ConcurrentHashMap<Method, PausableInvoker> computeValue(Class<?> cls) {
+            return new ConcurrentHashMap<Method, PausableInvoker>();
+        }
+    };
+
+    private final Method method;
+    private final int arity;
+
+    /*
+     * (Object target, Object arg0, ..., Object argN-1, Fiber)Object. The
+     * target is ignored for static methods.
+     */
+    private final MethodHandle handle;
+
+    /*
+     * (Object target, Object[] argsAndFiber)Object
+     */
+    private final MethodHandle spreader;
+
+    static final class InvokeState extends State {
+        Object target;
+        Object a0, a1, a2;
+        Object[] args;
+    }
+
+    private PausableInvoker(Method m, Method woven) throws IllegalAccessException {
+        method = m;
+        arity = woven.getParameterTypes().length - 1;
+        if (m.isAccessible()) {
+            woven.setAccessible(true);
+        }
+        MethodHandle h = MethodHandles.lookup().unreflect(woven);
+        if (Modifier.isStatic(woven.getModifiers())) {
+            h = MethodHandles.dropArguments(h, 0, Object.class);
+        }
+        Class<?>[] ptypes = new Class<?>[arity + 2];
+        ptypes[0] = Object.class;
+        for (int i = 1; i <= arity; i++) {
+            ptypes[i] = Object.class;
+        }
+        ptypes[arity + 1] = Fiber.class;
+        handle = h.asType(MethodType.methodType(Object.class, ptypes));
+        spreader = handle.asType(MethodType.genericMethodType(arity + 2)).asSpreader(Object[].class, arity + 1);
+    }
+
+    /**
+     * @param m
+     *            a pausable method, or its woven counterpart
+     * @throws IllegalArgumentException
+     *             if m is not a woven pausable method
+     * @throws IllegalAccessException
+     *             if the method is not accessible, and has not been made
+     *             accessible with setAccessible().
+     */
+    public static PausableInvoker of(Method m) throws IllegalAccessException {
+        ConcurrentHashMap<Method, PausableInvoker> cache = byClass.get(m.getDeclaringClass());
+        PausableInvoker inv = cache.get(m);
+        if (inv == null) {
+            inv = new PausableInvoker(m, getWovenMethod(m));
+            PausableInvoker prev = cache.putIfAbsent(m, inv);
+            if (prev != null) {
+                inv = prev;
+            }
+        }
+        return inv;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public Object invoke(Object target) throws Pausable, InvocationTargetException {
+        checkArity(0);
+        return call(Task.getCurrentTask().fiber, 0, target, null, null, null, null);
+    }
+
+    public Object invoke(Object target, Object arg0) throws Pausable, InvocationTargetException {
+        checkArity(1);
+        return call(Task.getCurrentTask().fiber, 1, target, arg0, null, null, null);
+    }
+
+    public Object invoke(Object target, Object arg0, Object arg1) throws Pausable, InvocationTargetException {
+        checkArity(2);
+        return call(Task.getCurrentTask().fiber, 2, target, arg0, arg1, null, null);
+    }
+
+    public Object invoke(Object target, Object arg0, Object arg1, Object arg2) throws Pausable, InvocationTargetException {
+        checkArity(3);
+        return call(Task.getCurrentTask().fiber, 3, target, arg0, arg1, arg2, null);
+    }
+
+    /**
+     * Invoke with any number of arguments, as in Method.invoke().
+     */
+    public Object invokeArgs(Object target, Object... args) throws Pausable, InvocationTargetException {
+        Fiber f = Task.getCurrentTask().fiber;
+        Object[] fargs = null;
+        if (f.pc == 0) {
+            // (when rewinding, the arguments are restored from the state)
+            int n = (args == null) ? 0 : args.length;
+            checkArity(n);
+            fargs = new Object[n + 1];
+            if (n > 0) {
+                System.arraycopy(args, 0, fargs, 0, n);
+            }
+            fargs[n] = f;
+        }
+        return call(f, -1, target, null, null, null, fargs);
+    }
+
+    private void checkArity(int n) {
+        if (n != arity) {
+            throw new IllegalArgumentException("Wrong number of arguments for " + method + ": " + n);
+        }
+    }
+
+    /*
+     * The equivalent of the woven code around a pausable call, done by hand:
+     * restore the arguments if we are rewinding, call the woven method one
+     * level down, and save the arguments if it paused.
+     * 
+     * @param n the number of arguments in a0..a2, or -1 if they are in args
+     */
+    private Object call(Fiber f, int n, Object target, Object a0, Object a1, Object a2, Object[] args)
+            throws InvocationTargetException {
+        if (f.pc != 0) {
+            // Resuming from a previous pause
+            InvokeState st = (InvokeState) f.getState();
+            target = st.target;
+            a0 = st.a0;
+            a1 = st.a1;
+            a2 = st.a2;
+            args = st.args;
+        }
+        f.down();
+        Object ret;
+        try {
+            switch (n) {
+            case 0:
+                ret = (Object) handle.invokeExact(target, f);
+                break;
+            case 1:
+                ret = (Object) handle.invokeExact(target, a0, f);
+                break;
+            case 2:
+                ret = (Object) handle.invokeExact(target, a0, a1, f);
+                break;
+            case 3:
+                ret = (Object) handle.invokeExact(target, a0, a1, a2, f);
+                break;
+            default:
+                ret = (Object) spreader.invokeExact(target, args);
+            }
+        } catch (TaskCancelledException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+        switch (f.up()) {
+        case Fiber.PAUSING__NO_STATE:
+            State s = f.reusesStates() ? f.spareState() : null;
+            InvokeState st = (s instanceof InvokeState) ? (InvokeState) s : new InvokeState();
+            st.self = this;
+            st.pc = 1;
+            st.target = target;
+            st.a0 = a0;
+            st.a1 = a1;
+            st.a2 = a2;
+            st.args = args;
+            f.setState(st);
+            return null;
+        case Fiber.PAUSING__HAS_STATE:
+            return null;
+        default:
+            return ret;
+        }
+    }
+
+    // Given a method corresp. to "f(int)", return the equivalent woven method
+    // for "f(int, kilim.Fiber)"
+    static Method getWovenMethod(Method m) {
+        Class<?>[] ptypes = m.getParameterTypes();
+        if (!(ptypes.length > 0 && ptypes[ptypes.length - 1].getName().equals("kilim.Fiber"))) {
+            // The last param is not "Fiber", so m is not woven.
+            // Get the woven method corresponding to m(..., Fiber)
+            boolean found = false;
+            LOOP: for (Method wm : m.getDeclaringClass().getDeclaredMethods()) {
+                if (wm != m && wm.getName().equals(m.getName())) {
+                    // names match. Check if the wm has the exact parameter
+                    // types as m, plus a fiber.
+                    Class<?>[] wptypes = wm.getParameterTypes();
+                    if (wptypes.length != ptypes.length + 1 || !(wptypes[wptypes.length - 1].getName().equals("kilim.Fiber")))
+                        continue LOOP;
+                    for (int i = 0; i < ptypes.length; i++) {
+                        if (ptypes[i] != wptypes[i])
+                            continue LOOP;
+                    }
+                    m = wm;
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                throw new IllegalArgumentException("Found no pausable method corresponding to supplied method: " + m);
+            }
+        }
+        return m;
+    }
+}
@@ -0,0 +1,93 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The pausable methods of a woven class, as listed by the weaver in the
+ * class's Constants.PAUSABLE_METHODS_FIELD, keyed by name with the line ranges
+ * of the methods of that name. This tells whether a stack frame is in a
+ * pausable method with a hash lookup, instead of going through the class's
+ * methods by reflection and its bytes with ASM to tell overloads apart. The
+ * field is read once per class.
+ * 
+ * Of limited use: the only caller is Task.getStackDepth(), which only the
+ * no-arg Fiber.upEx() of code woven by older weavers calls. It speeds up
+ * such code when its stack runs through classes woven by this weaver; the
+ * older classes themselves carry no table and take the reflective path.
+ */
+final class PausableMethods {
+    private static final ClassValue<PausableMethods> byClass = new ClassValue<PausableMethods>() {
+        protected PausableMethods computeValue(Class<?> cls) {
+            String table;
+            try {
+                // declared, not inherited: an unwoven subclass has none
+                Field f = cls.getDeclaredField(Constants.PAUSABLE_METHODS_FIELD);
+                f.setAccessible(true);
+                table = (String) f.get(null);
+            } catch (Exception e) {
+                // not woven, or woven before the field was added
+                table = null;
+            }
+            return new PausableMethods(table);
+        }
+    };
+
+    /*
+     * name -> {first, last, first, last, ...}, or null if unknown
+     */
+    private final HashMap<String, int[]> ranges;
+
+    private PausableMethods(String table) {
+        if (table == null) {
+            ranges = null;
+            return;
+        }
+        ranges = new HashMap<String, int[]>();
+        if (table.isEmpty())
+            return;
+        for (String entry : table.split(";")) {
+            int colon = entry.lastIndexOf(':');
+            String name = entry.substring(0, colon);
+            int first = 0, last = Integer.MAX_VALUE;
+            if (colon < entry.length() - 1) {
+                int dash = entry.indexOf('-', colon);
+                first = Integer.parseInt(entry.substring(colon + 1, dash));
+                last = Integer.parseInt(entry.substring(dash + 1));
+            }
+            int[] r = ranges.get(name);
+            r = (r == null) ? new int[2] : Arrays.copyOf(r, r.length + 2);
+            r[r.length - 2] = first;
+            r[r.length - 1] = last;
+            ranges.put(name, r);
+        }
+    }
+
+    /**
+     * @return whether the frame is in a pausable method of cls, or null if
+     *         cls carries no table
+     */
+    static Boolean isPausable(Class<?> cls, StackTraceElement ste) {
+        HashMap<String, int[]> rs = byClass.get(cls).ranges;
+        if (rs == null)
+            return null;
+        int[] r = rs.get(ste.getMethodName());
+        if (r == null)
+            return Boolean.FALSE;
+        int line = ste.getLineNumber();
+        if (line < 0)
+            return Boolean.TRUE;
+        for (int i = 0; i < r.length; i += 2) {
+            if (r[i] <= line && line <= r[i + 1])
+                return Boolean.TRUE;
+        }
+        return Boolean.FALSE;
+    }
+}
@@ -0,0 +1,195 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A chain of operators on the values of a generator, built with
+ * Generator.map(), filter(), flatMap() and take(). The operators are fused
+ * into the consumer's calls: asking for the next value of the last stage runs
+ * each stage in turn as a plain method call, and only the source generator
+ * (and any generators returned by a flatMap() function) is resumed. Compare
+ * this with chaining generators, where each stage is a task with its own
+ * fiber and every value costs a resume per stage.
+ * 
+ * <pre>
+ * Iterator&lt;String&gt; it = gen.filter(x -&gt; x % 2 == 0).map(x -&gt; "#" + x).take(10);
+ * </pre>
+ * 
+ * Stages are lazy; nothing is pulled from the source until the consumer asks
+ * for a value. Like the generator itself, a pipeline is for a single
+ * consumer thread.
+ */
+public abstract class Pipeline<T> implements Iterator<T>, Iterable<T> {
+    /*
+     * The value produced by the last successful advance(), and whether it has
+     * been handed out yet.
+     */
+    T cur;
+    private boolean ready;
+
+    /**
+     * Produce the next value into cur.
+     * 
+     * @return false if there are no more values
+     */
+    abstract boolean advance();
+
+    public boolean hasNext() {
+        if (!ready) {
+            ready = advance();
+        }
+        return ready;
+    }
+
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        ready = false;
+        T ret = cur;
+        cur = null;
+        return ret;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Iterator<T> iterator() {
+        return this;
+    }
+
+    public <R> Pipeline<R> map(Function<? super T, ? extends R> f) {
+        return new Map<T, R>(this, f);
+    }
+
+    public Pipeline<T> filter(Predicate<? super T> p) {
+        return new Filter<T>(this, p);
+    }
+
+    /**
+     * Replace each value with the values of the Iterable it maps to; this may
+     * be another generator.
+     */
+    public <R> Pipeline<R> flatMap(Function<? super T, ? extends Iterable<? extends R>> f) {
+        return new FlatMap<T, R>(this, f);
+    }
+
+    /**
+     * Stop after n values. The source is not run any further than needed.
+     */
+    public Pipeline<T> take(long n) {
+        return new Take<T>(this, n);
+    }
+
+    /*
+     * Stages. Each one reads its upstream's cur field directly, instead of
+     * going through hasNext() and next().
+     */
+
+    static final class Source<T> extends Pipeline<T> {
+        private final Generator<T> gen;
+
+        Source(Generator<T> gen) {
+            this.gen = gen;
+        }
+
+        boolean advance() {
+            if (!gen.hasNext())
+                return false;
+            cur = gen.next();
+            return true;
+        }
+    }
+
+    static final class Map<T, R> extends Pipeline<R> {
+        private final Pipeline<T> up;
+        private final Function<? super T, ? extends R> f;
+
+        Map(Pipeline<T> up, Function<? super T, ? extends R> f) {
+            this.up = up;
+            this.f = f;
+        }
+
+        boolean advance() {
+            if (!up.advance())
+                return false;
+            cur = f.apply(up.cur);
+            return true;
+        }
+    }
+
+    static final class Filter<T> extends Pipeline<T> {
+        private final Pipeline<T> up;
+        private final Predicate<? super T> p;
+
+        Filter(Pipeline<T> up, Predicate<? super T> p) {
+            this.up = up;
+            this.p = p;
+        }
+
+        boolean advance() {
+            while (up.advance()) {
+                T v = up.cur;
+                if (p.test(v)) {
+                    cur = v;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class FlatMap<T, R> extends Pipeline<R> {
+        private final Pipeline<T> up;
+        private final Function<? super T, ? extends Iterable<? extends R>> f;
+        private Iterator<? extends R> inner;
+
+        FlatMap(Pipeline<T> up, Function<? super T, ? extends Iterable<? extends R>> f) {
+            this.up = up;
+            this.f = f;
+        }
+
+        boolean advance() {
+            for (;;) {
+                Iterator<? extends R> it = inner;
+                if (it != null && it.hasNext()) {
+                    cur = it.next();
+                    return true;
+                }
+                inner = null;
+                if (!up.advance())
+                    return false;
+                inner = f.apply(up.cur).iterator();
+            }
+        }
+    }
+
+    static final class Take<T> extends Pipeline<T> {
+        private final Pipeline<T> up;
+        private long remaining;
+
+        Take(Pipeline<T> up, long n) {
+            if (n < 0)
+                throw new IllegalArgumentException("Illegal count: " + n);
+            this.up = up;
+            remaining = n;
+        }
+
+        boolean advance() {
+            if (remaining <= 0 || !up.advance())
+                return false;
+            remaining--;
+            cur = up.cur;
+            return true;
+        }
+    }
+}
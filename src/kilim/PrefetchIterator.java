@@ -0,0 +1,150 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The consumer end of Generator.prefetch(). The generator is driven by a task
+ * on the executor, which fills a single-producer single-consumer ring. When
+ * the ring is full, the producer leaves the executor's thread (the generator
+ * stays paused at its last yield) and the consumer submits it again once it
+ * has drained the ring to half its size. The consumer thread blocks when the
+ * ring is empty.
+ * 
+ * An exception thrown by the generator is rethrown from hasNext()/next()
+ * after the values yielded before it have been consumed.
+ */
+final class PrefetchIterator<T> implements Iterator<T>, Runnable {
+    private static final int RUNNING = 0;
+    private static final int PARKED  = 1;
+
+    private final Generator<T> gen;
+    private final Executor executor;
+    private final Object[] ring;
+    private final int mask;
+
+    /*
+     * Next slot to read (consumer) and next slot to fill (producer)
+     */
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicInteger producerState = new AtomicInteger(RUNNING);
+
+    /*
+     * Set by the producer after its last value has been published.
+     */
+    private volatile boolean finished;
+    private volatile RuntimeException failure;
+
+    /*
+     * The consumer, if it is blocked (or about to block) on an empty ring
+     */
+    private volatile Thread waiter;
+
+    PrefetchIterator(Generator<T> gen, int depth, Executor executor) {
+        if (depth < 1 || depth > (1 << 30))
+            throw new IllegalArgumentException("Illegal depth: " + depth);
+        int size = 1;
+        while (size < depth)
+            size <<= 1;
+        this.gen = gen;
+        this.executor = executor;
+        ring = new Object[size];
+        mask = size - 1;
+        executor.execute(this);
+    }
+
+    /*
+     * The producer. Runs the generator until the ring is full or the
+     * generator is done.
+     */
+    public void run() {
+        try {
+            for (;;) {
+                long t = tail.get();
+                if (t - head.get() > mask) {
+                    producerState.set(PARKED);
+                    // recheck, the consumer may have drained the ring before
+                    // it could see us parked
+                    if (t - head.get() > (mask >> 1) || !producerState.compareAndSet(PARKED, RUNNING))
+                        return;
+                    continue;
+                }
+                if (gen.hasNext()) {
+                    ring[(int) t & mask] = gen.next();
+                    tail.set(t + 1);
+                    wakeConsumer();
+                } else if (gen.isDone()) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        } catch (Error e) {
+            failure = new RuntimeException(e);
+        }
+        finished = true;
+        wakeConsumer();
+    }
+
+    private void wakeConsumer() {
+        Thread w = waiter;
+        if (w != null) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    public boolean hasNext() {
+        for (;;) {
+            if (tail.get() != head.get())
+                return true;
+            if (finished) {
+                // the last values may have been published just before
+                if (tail.get() != head.get())
+                    return true;
+                RuntimeException e = failure;
+                if (e != null) {
+                    failure = null;
+                    throw e;
+                }
+                return false;
+            }
+            waiter = Thread.currentThread();
+            if (tail.get() == head.get() && !finished) {
+                LockSupport.park(this);
+            }
+            waiter = null;
+        }
+    }
+
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        long h = head.get();
+        int i = (int) h & mask;
+        @SuppressWarnings("unchecked")
+        T val = (T) ring[i];
+        ring[i] = null;
+        head.set(h + 1);
+        if (producerState.get() == PARKED && tail.get() - (h + 1) <= (mask >> 1)
+                && producerState.compareAndSet(PARKED, RUNNING)) {
+            executor.execute(this);
+        }
+        return val;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
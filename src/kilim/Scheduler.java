@@ -0,0 +1,182 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import kilim.analysis.Utils;
+
+/**
+ * A work-stealing scheduler for tasks. Each worker thread owns a queue of
+ * runnable tasks. Tasks scheduled from a worker thread (typically a task
+ * resuming another one) go to that worker's own queue, those scheduled from
+ * outside are spread round-robin. A worker that runs out of tasks steals from
+ * the others before parking itself.
+ *
+ * Tasks get here through Task.start() and Task.resume(); a task that yields
+ * is put back on the queue at once, and a task that pauses for any other
+ * reason stays off the queues until some party calls resume() on it.
+ *
+ * The number of threads of the default scheduler is taken from the system
+ * property "kilim.Scheduler.numThreads", and defaults to the number of cores.
+ */
+public class Scheduler {
+    public static final String NUM_THREADS_PROP = "kilim.Scheduler.numThreads";
+
+    public static final int defaultNumThreads = Integer.getInteger(NUM_THREADS_PROP, Utils.PROC_NUM);
+
+    private static Scheduler defaultScheduler;
+
+    final WorkerThread[] workers;
+
+    /*
+     * Workers that have found nothing to run and are (about to be) parked.
+     */
+    private final ConcurrentLinkedQueue<WorkerThread> idleWorkers = new ConcurrentLinkedQueue<WorkerThread>();
+
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    volatile boolean shutdown = false;
+
+    private TimerWheel timerWheel;
+
+    public Scheduler(int numThreads) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("numThreads must be positive: " + numThreads);
+        workers = new WorkerThread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = new WorkerThread(this, i);
+        }
+        for (WorkerThread w : workers) {
+            w.start();
+        }
+    }
+
+    public static synchronized Scheduler getDefaultScheduler() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new Scheduler(defaultNumThreads);
+        }
+        return defaultScheduler;
+    }
+
+    public static synchronized void setDefaultScheduler(Scheduler s) {
+        defaultScheduler = s;
+    }
+
+    /**
+     * The timers of tasks running on this scheduler. The wheel (and its
+     * thread) is only created when first asked for.
+     */
+    public synchronized TimerWheel getTimerWheel() {
+        if (timerWheel == null) {
+            timerWheel = new TimerWheel();
+        }
+        return timerWheel;
+    }
+
+    public int numThreads() {
+        return workers.length;
+    }
+
+    /**
+     * Put a task on a run queue. Callers must make sure a task is never
+     * scheduled twice; Task.start() and Task.resume() take care of that.
+     * Tasks scheduled after shutdown() are dropped.
+     */
+    public void schedule(Task t) {
+        if (shutdown)
+            return;
+        Thread ct = Thread.currentThread();
+        WorkerThread w;
+        if (ct instanceof WorkerThread && ((WorkerThread) ct).scheduler == this) {
+            w = (WorkerThread) ct;
+        } else {
+            w = workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+        }
+        w.push(t);
+        wakeOne();
+    }
+
+    /**
+     * Stop all workers after they are done with the task at hand. Tasks left
+     * on the run queues are not run.
+     */
+    public void shutdown() {
+        shutdown = true;
+        synchronized (this) {
+            if (timerWheel != null) {
+                timerWheel.shutdown();
+            }
+        }
+        for (WorkerThread w : workers) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /*
+     * Take a task from some worker other than the thief, starting at a
+     * different victim each time to spread the stealing around.
+     */
+    Task steal(WorkerThread thief) {
+        int n = workers.length;
+        int start = thief.nextVictim();
+        for (int i = 0; i < n; i++) {
+            WorkerThread victim = workers[(start + i) % n];
+            if (victim == thief)
+                continue;
+            Task t = victim.steal();
+            if (t != null)
+                return t;
+        }
+        return null;
+    }
+
+    boolean hasRunnableTasks() {
+        for (WorkerThread w : workers) {
+            if (w.hasTasks())
+                return true;
+        }
+        return false;
+    }
+
+    /*
+     * A worker registers itself as idle before checking the queues one last
+     * time, and schedule() pushes the task before looking for idle workers, so
+     * either the worker sees the task or we see the worker. A worker that
+     * finds work (or wakes up) on its own takes itself out again, or
+     * wakeOne() would spend its unpark on a worker that is not parked.
+     */
+    void idle(WorkerThread w) {
+        if (w.inIdleQueue.compareAndSet(false, true)) {
+            idleWorkers.offer(w);
+        }
+        if (!shutdown && !hasRunnableTasks()) {
+            LockSupport.park(this);
+        }
+        // whoever clears the flag first takes us out; a wakeOne() that loses
+        // moves on to the next idle worker
+        if (w.inIdleQueue.compareAndSet(true, false)) {
+            idleWorkers.remove(w);
+        }
+    }
+
+    private void wakeOne() {
+        WorkerThread w;
+        while ((w = idleWorkers.poll()) != null) {
+            if (w.inIdleQueue.compareAndSet(true, false)) {
+                LockSupport.unpark(w);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Waits on several channels at once, Go style. Cases are added with recv()
+ * and send(), each returning the number of its case, and select() pauses the
+ * task until one of them can go through, performs it and returns its number.
+ * 
+ * <pre>
+ * Select sel = new Select();
+ * int data = sel.recv(dataCh);
+ * int quit = sel.recv(quitCh);
+ * for (;;) {
+ *     int c = sel.select(1000);
+ *     if (c == data) handle(sel.received());
+ *     else if (c == quit || c == Select.TIMEOUT) break;
+ * }
+ * </pre>
+ * 
+ * If several cases are ready, they are taken in turns. The task is queued on
+ * all the channels while it waits, but only the first channel to claim it
+ * resumes it; the others drop it. A task cancelled while it waits takes
+ * itself off all the queues. A Select may be used over and over, by one task
+ * at a time.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class Select implements PauseReason {
+    /**
+     * The result of a select that timed out, or of a selectnb() that found
+     * nothing ready.
+     */
+    public static final int TIMEOUT = -1;
+
+    private static final int PENDING = -2;
+
+    private static final Comparator<Channel> byOrder = new Comparator<Channel>() {
+        public int compare(Channel a, Channel b) {
+            return Long.compare(a.order, b.order);
+        }
+    };
+
+    /*
+     * Shared by the select's waiters: 0 while waiting, then case number + 1
+     * for the channel that claimed it, TIMEOUT, or Waiter.CANCELLED.
+     */
+    private final AtomicInteger token = new AtomicInteger();
+
+    private Channel[] chans = new Channel[4];
+    private Object[] msgs = new Object[4];
+    private boolean[] isSend = new boolean[4];
+    private int numCases;
+
+    /*
+     * chans, sorted; all of them are locked in this order
+     */
+    private Channel[] lockOrder;
+
+    private Channel.Waiter[] waiters;
+    private Object received;
+    private int next;
+
+    /**
+     * Add a case that receives from the channel.
+     * 
+     * @return the number of the case
+     */
+    public int recv(Channel<?> ch) {
+        return add(ch, null, false);
+    }
+
+    /**
+     * Add a case that sends the message on the channel.
+     * 
+     * @return the number of the case
+     */
+    public <T> int send(Channel<T> ch, T msg) {
+        if (msg == null)
+            throw new NullPointerException("Null message supplied to send");
+        return add(ch, msg, true);
+    }
+
+    private int add(Channel<?> ch, Object msg, boolean send) {
+        int n = numCases;
+        if (n == chans.length) {
+            chans = Arrays.copyOf(chans, n * 2);
+            msgs = Arrays.copyOf(msgs, n * 2);
+            isSend = Arrays.copyOf(isSend, n * 2);
+        }
+        chans[n] = ch;
+        msgs[n] = msg;
+        isSend[n] = send;
+        numCases = n + 1;
+        lockOrder = null;
+        return n;
+    }
+
+    /**
+     * The message received by the case returned by the last select, or null
+     * if that case's channel has been closed.
+     */
+    public <T> T received() {
+        return (T) received;
+    }
+
+    /**
+     * Pause the task until one of the cases goes through.
+     * 
+     * @return the number of that case
+     * @throws IllegalStateException
+     *             if the case chosen sends to a closed channel.
+     */
+    public int select() throws Pausable {
+        int c = trySelect(Task.getCurrentTask());
+        if (c != PENDING)
+            return c;
+        boolean done = false;
+        try {
+            while (token.get() == 0) {
+                Task.pause(this);
+            }
+            done = true;
+        } finally {
+            if (!done)
+                withdraw();
+        }
+        return finish();
+    }
+
+    /**
+     * Pause the task until one of the cases goes through, or the timeout
+     * expires. A timeout of zero or less does not pause at all.
+     * 
+     * @return the number of the case, or TIMEOUT
+     */
+    public int select(long timeoutMillis) throws Pausable {
+        if (timeoutMillis <= 0)
+            return selectnb();
+        int c = trySelect(Task.getCurrentTask());
+        if (c != PENDING)
+            return c;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean done = false;
+        try {
+            while (token.get() == 0) {
+                long left = deadline - System.nanoTime();
+                // round up, so as not to wake up too early
+                if (left <= 0 || !Task.pause(this, (left + 999999) / 1000000)) {
+                    if (token.compareAndSet(0, TIMEOUT)) {
+                        break;
+                    }
+                }
+            }
+            done = true;
+        } finally {
+            if (!done)
+                withdraw();
+        }
+        return finish();
+    }
+
+    /**
+     * Non-pausable select, may be called from any thread.
+     * 
+     * @return the number of a case that went through, or TIMEOUT if none
+     *         was ready.
+     */
+    public int selectnb() {
+        return trySelect(null);
+    }
+
+    /*
+     * With all channels locked, nobody else can claim this select; go
+     * through the first case that is ready, or queue up on all of them.
+     */
+    private int trySelect(Task t) {
+        int n = numCases;
+        if (n == 0)
+            throw new IllegalStateException("No cases to select from");
+        token.set(0);
+        received = null;
+        lockAll();
+        try {
+            for (int k = 0; k < n; k++) {
+                int i = (next + k) % n;
+                Channel ch = chans[i];
+                if (isSend[i]) {
+                    if (!ch.sendLocked(msgs[i]))
+                        continue;
+                } else {
+                    Object msg = ch.recvLocked();
+                    if (msg == null && !ch.isClosedLocked())
+                        continue;
+                    received = msg;
+                }
+                token.set(i + 1);
+                next = i + 1;
+                return i;
+            }
+            if (t == null)
+                return TIMEOUT;
+            if (waiters == null || waiters.length < n) {
+                waiters = new Channel.Waiter[chans.length];
+            }
+            for (int i = 0; i < n; i++) {
+                Channel.Waiter w = new Channel.Waiter(t, msgs[i], token, i);
+                waiters[i] = w;
+                chans[i].enqueue(w, isSend[i]);
+            }
+            return PENDING;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /*
+     * Called once the select has been claimed; takes the task off the other
+     * channels' queues.
+     */
+    private int finish() {
+        int st = token.get();
+        int c = st - 1;
+        for (int i = 0; i < numCases; i++) {
+            if (i != c) {
+                Channel ch = chans[i];
+                ch.lock.lock();
+                try {
+                    ch.dequeue(waiters[i], isSend[i]);
+                } finally {
+                    ch.lock.unlock();
+                }
+            }
+        }
+        if (st == TIMEOUT) {
+            Arrays.fill(waiters, null);
+            return TIMEOUT;
+        }
+        Channel.Waiter w = waiters[c];
+        Arrays.fill(waiters, null);
+        next = c + 1;
+        if (isSend[c]) {
+            if (w.closed)
+                throw new IllegalStateException("Channel closed");
+        } else {
+            received = w.value;
+        }
+        return c;
+    }
+
+    /*
+     * The task has stopped waiting (cancelled, or past its deadline): take
+     * it off all the queues, unless a channel claimed it first, in which case
+     * a message received on that case goes back to the channel.
+     */
+    private void withdraw() {
+        lockAll();
+        try {
+            int c = token.compareAndSet(0, Channel.Waiter.CANCELLED) ? -1 : token.get() - 1;
+            for (int i = 0; i < numCases; i++) {
+                Channel.Waiter w = waiters[i];
+                if (i != c)
+                    chans[i].dequeue(w, isSend[i]);
+                else if (!isSend[i] && !w.closed)
+                    chans[i].requeueLocked(w.value);
+            }
+            Arrays.fill(waiters, null);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    private void lockAll() {
+        Channel[] lo = lockOrder;
+        if (lo == null) {
+            lo = Arrays.copyOf(chans, numCases);
+            Arrays.sort(lo, byOrder);
+            lockOrder = lo;
+        }
+        // the locks are reentrant, a channel used by several cases is
+        // simply locked several times
+        for (Channel ch : lo) {
+            ch.lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        Channel[] lo = lockOrder;
+        for (int i = lo.length - 1; i >= 0; i--) {
+            lo[i].lock.unlock();
+        }
+    }
+
+    public String toString() {
+        int st = token.get();
+        String s = st == 0 ? "waiting" : st == TIMEOUT ? "timed out" : st == Channel.Waiter.CANCELLED ? "cancelled" : "case " + (st - 1);
+        return "select(" + numCases + " cases, " + s + ")";
+    }
+}
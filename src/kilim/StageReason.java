@@ -0,0 +1,82 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * The pause reason of a task in Task.await(), awaitAll() and awaitAny(). The
+ * same object is registered as the completion callback of every stage waited
+ * for, and the task is resumed once, when the count of stages it still waits
+ * for drops to zero.
+ */
+@SuppressWarnings("serial")
+final class StageReason extends AtomicInteger implements PauseReason, BiConsumer<Object, Throwable> {
+    private final Task task;
+
+    /*
+     * true if the first stage to complete decides (awaitAny), false if all of
+     * them have to complete.
+     */
+    private final boolean any;
+
+    private Object result;
+    private volatile Throwable failure;
+
+    StageReason(Task task, int count, boolean any) {
+        super(any ? 1 : count);
+        this.task = task;
+        this.any = any;
+    }
+
+    public void accept(Object val, Throwable th) {
+        if (any) {
+            if (compareAndSet(1, -1)) {
+                result = val;
+                failure = th;
+                set(0);
+                task.resume();
+            }
+        } else {
+            if (th != null && failure == null) {
+                failure = th;
+            }
+            if (decrementAndGet() == 0) {
+                task.resume();
+            }
+        }
+    }
+
+    boolean isDone() {
+        return get() == 0;
+    }
+
+    /**
+     * The result of the stage that completed first (awaitAny), or null;
+     * throws its exception (or the first one seen, for awaitAll) the same way
+     * CompletableFuture.join() does.
+     */
+    Object result() {
+        Throwable th = failure;
+        if (th != null)
+            throw wrap(th);
+        return result;
+    }
+
+    static RuntimeException wrap(Throwable th) {
+        if (th instanceof CompletionException || th instanceof CancellationException)
+            return (RuntimeException) th;
+        return new CompletionException(th);
+    }
+
+    public String toString() {
+        return "await(" + (any ? "any" : get() + " remaining") + ")";
+    }
+}
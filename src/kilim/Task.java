@@ -11,11 +11,23 @@ import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 
 import kilim.analysis.MethodLocatingVisitor;
@@ -38,11 +50,24 @@ public abstract class Task implements Runnable {
 
     static PauseReason yieldReason = new YieldReason();
     /**
-     * Task id, automatically generated
+     * Task id, automatically generated. Ids are unique, but they are handed
+     * out to each thread in blocks, so they do not reflect creation order
+     * across threads.
      */
     public final int id;
     static final AtomicInteger idSource = new AtomicInteger();
 
+    private static final int ID_BLOCK = 1024;
+
+    /*
+     * {next id, end of block} of the current thread's block of ids
+     */
+    private static final ThreadLocal<int[]> idBlock = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            return new int[2];
+        }
+    };
+
     /**
      * The stack manager in charge of rewinding and unwinding the stack when
      * Task.pause() is called.
@@ -57,29 +82,214 @@ public abstract class Task implements Runnable {
      */
     protected PauseReason pauseReason;
 
+    public volatile Object exitResult = "OK";
+
     /**
-     * running = true when it is put on the schdulers run Q (by Task.resume()).
-     * The Task.runExecute() method is called at some point; 'running' remains
-     * true until the end of runExecute (where it is reset), at which point a
-     * fresh decision is made whether the task needs to continue running.
+     * The scheduler this task has been started on, or null if the task is
+     * driven directly through _runExecute() (as generators are).
      */
-    protected boolean running = false;
-    protected boolean done = false;
+    protected volatile Scheduler scheduler;
 
-    public volatile Object exitResult = "OK";
+    private static final Object[] NO_LOCALS = new Object[0];
+
+    /*
+     * Values of the task's FiberLocals, indexed by FiberLocal.index. While
+     * localsShared is set, the array may also belong to the parent or to
+     * children; see localsForWrite().
+     */
+    Object[] locals = NO_LOCALS;
+    private boolean localsShared;
+
+    /*
+     * Tasks spawned by this one, some of which may be done already. Touched
+     * by this task only; done children are weeded out as the list grows.
+     */
+    private ArrayList<Task> children;
+    private int pruneChildrenAt;
+
+    /*
+     * Read by Fiber.down() at every pausable call, so kept to a single
+     * volatile flag. cancelMessage is written before it.
+     */
+    volatile boolean cancelled;
+    private String cancelMessage;
+
+    /*
+     * System.nanoTime() by which the task has to be done, and the timer that
+     * enforces it on a scheduler; 0 and null if there is no deadline.
+     */
+    private long deadline;
+    private Timer deadlineTimer;
+
+    /*
+     * With the thread backend (see TaskThreads): the thread running
+     * execute(), and the thread waiting in _runExecute() for it to pause, if
+     * the task is driven directly. A carrier that finds itself replaced (by
+     * reset()) quits.
+     */
+    private volatile Thread carrier;
+    private volatile Thread driver;
+
+    /*
+     * Callbacks to be told about the task's exit, most recent first.
+     * Swapped for NOTIFYING when the task is done, after which no more can be
+     * added, and for EXITED once they have all been called.
+     */
+    private volatile DoneListener doneListeners;
+    private static final DoneListener NOTIFYING = new DoneListener(null, null);
+    private static final DoneListener EXITED = new DoneListener(null, null);
+    private static final AtomicReferenceFieldUpdater<Task, DoneListener> doneListenersUpdater = AtomicReferenceFieldUpdater.newUpdater(
+            Task.class, DoneListener.class, "doneListeners");
+
+    private static final class DoneListener {
+        final BiConsumer<Object, Throwable> callback;
+        final DoneListener next;
+
+        DoneListener(BiConsumer<Object, Throwable> callback, DoneListener next) {
+            this.callback = callback;
+            this.next = next;
+        }
+    }
+
+    /*
+     * The life cycle of the task. All transitions are CASes on this one field,
+     * so no monitor is taken on the way in or out of _runExecute().
+     * 
+     * PAUSED  : not on a run queue, waiting for start() or resume() (or to be
+     *           run directly, as generators are). New tasks start out here.
+     * READY   : on its scheduler's run queue
+     * RUNNING : inside _runExecute() (or, with the thread backend, running
+     *           on its own thread)
+     * RESUMED : inside _runExecute(), and resume() has been called meanwhile;
+     *           the task goes straight back on the run queue when it pauses,
+     *           so the resume is not lost
+     * DONE    : execute() has returned or thrown
+     */
+    private static final int           PAUSED     = 0;
+    private static final int           READY      = 1;
+    private static final int           RUNNING    = 2;
+    private static final int           RESUMED    = 3;
+    private static final int           DONE       = 4;
+    private static final String[]      stateNames = { "paused", "ready", "running", "resumed", "done" };
+    private volatile int               state      = PAUSED;
+    private static final AtomicIntegerFieldUpdater<Task> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(Task.class, "state");
 
     public Task() {
-        id = idSource.incrementAndGet();
+        id = nextId();
         fiber = new Fiber(this);
     }
 
+    /*
+     * Only every ID_BLOCK'th task touches the shared counter.
+     */
+    private static int nextId() {
+        int[] block = idBlock.get();
+        if (block[0] == block[1]) {
+            int start = idSource.getAndAdd(ID_BLOCK);
+            block[0] = start + 1;
+            block[1] = start + 1 + ID_BLOCK;
+        }
+        return block[0]++;
+    }
+
     public int id() {
         return id;
     }
 
     /**
-     * The generated code calls Fiber.upEx, which in turn calls this to find out
-     * out where the current method is w.r.t the closest _runExecute method.
+     * Schedule this task on the default scheduler.
+     * 
+     * @see Scheduler#getDefaultScheduler()
+     */
+    public Task start() {
+        return start(Scheduler.getDefaultScheduler());
+    }
+
+    /**
+     * Schedule this task on the given scheduler. From here on, the task is run
+     * by the scheduler's worker threads; it must not be driven through
+     * _runExecute() directly any more.
+     */
+    public Task start(Scheduler s) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Task " + id + " has already been started");
+        }
+        scheduler = s;
+        if (deadline != 0) {
+            armDeadline();
+        }
+        resume();
+        return this;
+    }
+
+    /**
+     * To be called by whoever satisfies the task's pause reason. Puts the task
+     * back on its scheduler's run queue. If the task has not paused yet (it is
+     * still running, about to pause), it is rescheduled right after it does.
+     * 
+     * As with Object.wait(), a resumed task may find the condition it paused
+     * for to be false again, and should check it in a loop.
+     * 
+     * @return false if the task is not on a scheduler, is done, or has a
+     *         resume already pending.
+     */
+    public boolean resume() {
+        Scheduler s = scheduler;
+        if (s == null)
+            return false;
+        for (;;) {
+            switch (state) {
+            case PAUSED:
+                if (stateUpdater.compareAndSet(this, PAUSED, READY)) {
+                    if (TaskThreads.ENABLED) {
+                        // like schedule(), nothing more runs after shutdown
+                        if (!s.shutdown) {
+                            wake();
+                        }
+                    } else {
+                        s.schedule(this);
+                    }
+                    return true;
+                }
+                break;
+            case RUNNING:
+                if (stateUpdater.compareAndSet(this, RUNNING, RESUMED)) {
+                    return true;
+                }
+                break;
+            default:
+                return false;
+            }
+        }
+    }
+
+    /*
+     * Called at the end of a run that ended in a pause. Yielding tasks go
+     * straight back to the run queue, others wait for a resume().
+     */
+    private void reschedule() {
+        Scheduler s = scheduler;
+        if (pauseReason == yieldReason) {
+            state = READY;
+            s.schedule(this);
+            return;
+        }
+        for (;;) {
+            if (stateUpdater.compareAndSet(this, RUNNING, PAUSED)) {
+                return;
+            }
+            if (stateUpdater.compareAndSet(this, RESUMED, READY)) {
+                s.schedule(this);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Code woven by older versions of the weaver calls Fiber.upEx(), which in
+     * turn calls this to find out out where the current method is w.r.t the
+     * closest _runExecute method. Freshly woven code records the depth on
+     * method entry instead and never gets here.
      * 
      * @return the number of stack frames above _runExecute(), not including
      *         this method
@@ -110,8 +320,15 @@ public abstract class Task implements Runnable {
     private boolean isPausableMethod(StackTraceElement ste) {
         Boolean ret = isPausableCache.get(ste);
         if (ret == null) {
+            Class<?> cls = loadFrameClass(ste.getClassName());
+            // the table the weaver left in the class, if any
+            ret = (cls == null) ? Boolean.FALSE : PausableMethods.isPausable(cls, ste);
+            if (ret != null) {
+                isPausableCache.put(ste, ret);
+                return ret;
+            }
             // check if method pausable Reflectively
-            Method[] ms = reflectMethods(ste);
+            Method[] ms = reflectMethods(cls, ste);
             if (ms == null || ms.length == 0 || ms.length == 1) {
                 ret = false;
             } else if (ms.length == 2) {
@@ -255,8 +472,17 @@ public abstract class Task implements Runnable {
     }
 
     // find methods by stack trace element
-    private Method[] reflectMethods(StackTraceElement ste) {
-        String clsName = ste.getClassName();
+    private static Method[] reflectMethods(Class<?> cls, StackTraceElement ste) {
+        Method[] ms = cls.getDeclaredMethods();
+        List<Method> ret = new ArrayList<Method>();
+        for (Method m : ms)
+            if (ste.getMethodName().equals(m.getName()))
+                ret.add(m);
+
+        return ret.toArray(new Method[ret.size()]);
+    }
+
+    private static Class<?> loadFrameClass(String clsName) {
         Class<?> cls = null;
         ClassLoader ld = Thread.currentThread().getContextClassLoader();
         boolean threadLoader = true;
@@ -280,14 +506,7 @@ public abstract class Task implements Runnable {
                 return null;
             }
         }
-
-        Method[] ms = cls.getDeclaredMethods();
-        List<Method> ret = new ArrayList<Method>();
-        for (Method m : ms)
-            if (ste.getMethodName().equals(m.getName()))
-                ret.add(m);
-
-        return ret.toArray(new Method[ret.size()]);
+        return cls;
     }
 
     // test if kilim class
@@ -308,12 +527,31 @@ public abstract class Task implements Runnable {
     }
 
     /**
-     * This is a placeholder that doesn't do anything useful. Weave replaces the
-     * call in the bytecode from invokestateic Task.getCurrentTask to load fiber
-     * getfield task
+     * Weave replaces the call in the bytecode from invokestatic
+     * Task.getCurrentTask to load fiber getfield task. Unwoven, this finds the
+     * task of the current thread under the thread backend.
      */
     public static Task getCurrentTask() throws Pausable {
-        return null;
+        Task t = TaskThreads.currentTask();
+        if (t == null)
+            errNotWoven();
+        return t;
+    }
+
+    /**
+     * The task the calling thread is running, found without weaving, for
+     * callers that are not pausable themselves (FiberMutex.unlock()).
+     * 
+     * @return the task, or null if the thread is neither a scheduler's worker
+     *         nor a thread backend carrier, e.g. when a generator is driven
+     *         from a plain thread
+     */
+    public static Task runningTask() {
+        Thread th = Thread.currentThread();
+        if (th instanceof WorkerThread) {
+            return ((WorkerThread) th).running;
+        }
+        return TaskThreads.currentTask();
     }
 
     /**
@@ -321,6 +559,7 @@ public abstract class Task implements Runnable {
      */
 
     public static void exit(Object aExitValue) throws Pausable {
+        exitThreaded(new TaskDoneReason(aExitValue));
     }
 
     public static void exit(Object aExitValue, Fiber f) {
@@ -335,6 +574,7 @@ public abstract class Task implements Runnable {
      * trapped by the task scheduler also set the error result.
      */
     public static void errorExit(Throwable ex) throws Pausable {
+        exitThreaded(new TaskDoneReason(ex));
     }
 
     public static void errorExit(Throwable ex, Fiber f) {
@@ -359,14 +599,11 @@ public abstract class Task implements Runnable {
         System.exit(0);
     }
 
-    static class ArgState extends kilim.State {
-        Object mthd;
-        Object obj;
-        Object[] fargs;
-    }
-
     /**
      * Invoke a pausable method via reflection. Equivalent to Method.invoke().
+     * This looks up the PausableInvoker cached for the method (see
+     * PausableInvoker.of()) each time; callers that invoke the same method
+     * repeatedly should hold on to the invoker instead.
      * 
      * @param mthd
      *            : The method to be invoked. (Implementation note: the
@@ -381,94 +618,22 @@ public abstract class Task implements Runnable {
      * @throws IllegalAccessException
      * @throws IllegalArgumentException
      * @throws InvocationTargetException
+     * @see PausableInvoker
      */
     public static Object invoke(Method mthd, Object target, Object... args) throws Pausable, IllegalAccessException, IllegalArgumentException,
             InvocationTargetException {
-        Fiber f = getCurrentTask().fiber;
-        Object[] fargs;
-        if (f.pc == 0) {
-            mthd = getWovenMethod(mthd);
-            // Normal invocation.
-            if (args == null) {
-                fargs = new Object[1];
-            } else {
-                fargs = new Object[args.length + 1]; // for fiber
-                System.arraycopy(args, 0, fargs, 0, args.length);
-            }
-            fargs[fargs.length - 1] = f;
-        } else {
-            // Resuming from a previous yield
-            ArgState as = (ArgState) f.getState();
-            mthd = (Method) as.mthd;
-            target = as.obj;
-            fargs = as.fargs;
-        }
-        f.down();
-        Object ret = mthd.invoke(target, fargs);
-        switch (f.up()) {
-        case Fiber.NOT_PAUSING__NO_STATE:
-        case Fiber.NOT_PAUSING__HAS_STATE:
-            return ret;
-        case Fiber.PAUSING__NO_STATE:
-            ArgState as = new ArgState();
-            as.obj = target;
-            as.fargs = fargs;
-            as.pc = 1;
-            as.mthd = mthd;
-            f.setState(as);
-            return null;
-        case Fiber.PAUSING__HAS_STATE:
-            return null;
-        }
-        throw new IllegalAccessException("Internal Error");
-    }
-
-    // Given a method corresp. to "f(int)", return the equivalent woven method
-    // for "f(int, kilim.Fiber)"
-    private static Method getWovenMethod(Method m) {
-        Class<?>[] ptypes = m.getParameterTypes();
-        if (!(ptypes.length > 0 && ptypes[ptypes.length - 1].getName().equals("kilim.Fiber"))) {
-            // The last param is not "Fiber", so m is not woven.
-            // Get the woven method corresponding to m(..., Fiber)
-            boolean found = false;
-            LOOP: for (Method wm : m.getDeclaringClass().getDeclaredMethods()) {
-                if (wm != m && wm.getName().equals(m.getName())) {
-                    // names match. Check if the wm has the exact parameter
-                    // types as m, plus a fiber.
-                    Class<?>[] wptypes = wm.getParameterTypes();
-                    if (wptypes.length != ptypes.length + 1 || !(wptypes[wptypes.length - 1].getName().equals("kilim.Fiber")))
-                        continue LOOP;
-                    for (int i = 0; i < ptypes.length; i++) {
-                        if (ptypes[i] != wptypes[i])
-                            continue LOOP;
-                    }
-                    m = wm;
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                throw new IllegalArgumentException("Found no pausable method corresponding to supplied method: " + m);
-            }
-        }
-        return m;
+        return PausableInvoker.of(mthd).invokeArgs(target, args);
     }
 
     /**
      * Yield cooperatively to the next task waiting to use the thread.
      */
     public static void yield() throws Pausable {
-        errNotWoven();
+        pauseThreaded(yieldReason);
     }
 
     public static void yield(Fiber f) {
-        if (f.pc == 0) {
-            f.task.setPauseReason(yieldReason);
-        } else {
-            f.task.setPauseReason(null);
-        }
-        f.togglePause();
-        f.task.checkKill();
+        pause(yieldReason, f);
     }
 
     /**
@@ -480,17 +645,359 @@ public abstract class Task implements Runnable {
      *            the reason
      */
     public static void pause(PauseReason pauseReason) throws Pausable {
-        errNotWoven();
+        pauseThreaded(pauseReason);
     }
 
     public static void pause(PauseReason pauseReason, Fiber f) {
         if (f.pc == 0) {
+            // a cancelled task does not pause any more
+            f.task.checkKill();
             f.task.setPauseReason(pauseReason);
+            f.togglePause();
         } else {
+            // resuming; the whole stack has been rewound by now, so the
+            // exception unwinds through all of it
             f.task.setPauseReason(null);
+            f.togglePause();
+            f.task.checkKill();
         }
-        f.togglePause();
-        f.task.checkKill();
+    }
+
+    /**
+     * Pause like pause(PauseReason), but have the task resumed after the
+     * given timeout if nobody resumes it earlier. The task must have been
+     * started on a scheduler.
+     * 
+     * @return false if the timeout expired before the task was resumed.
+     */
+    public static boolean pause(PauseReason pauseReason, long timeoutMillis) throws Pausable {
+        Task t = getCurrentTask();
+        Timer timer = t.getTimerWheel().schedule(t, timeoutMillis);
+        boolean resumed;
+        try {
+            pause(pauseReason);
+        } finally {
+            // a cancelled task must not leave its timer on the wheel
+            resumed = timer.cancel();
+        }
+        return resumed;
+    }
+
+    /**
+     * Pause the current task for (at least) the given number of
+     * milliseconds, without holding on to the thread. The task must have been
+     * started on a scheduler.
+     */
+    public static void sleep(long millis) throws Pausable {
+        Task t = getCurrentTask();
+        Timer timer = t.getTimerWheel().schedule(t, millis);
+        try {
+            do {
+                pause(timer);
+            } while (!timer.hasFired());
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Pause the current task until the stage completes, and return its
+     * result. A CompletableFuture that is already complete is read without
+     * pausing. The task is resumed from whichever thread completes the stage,
+     * so it must have been started on a scheduler.
+     * 
+     * @throws CompletionException
+     *             (or CancellationException) if the stage completed
+     *             exceptionally, as CompletableFuture.join() does.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T await(CompletionStage<T> stage) throws Pausable {
+        if (stage instanceof CompletableFuture) {
+            CompletableFuture<T> cf = (CompletableFuture<T>) stage;
+            if (cf.isDone())
+                return cf.join();
+        }
+        StageReason r = new StageReason(getCurrentTask(), 1, true);
+        stage.whenComplete(r);
+        while (!r.isDone()) {
+            pause(r);
+        }
+        return (T) r.result();
+    }
+
+    /**
+     * Pause the current task until all the stages have completed. A single
+     * callback object is registered with all of them, and the task is resumed
+     * once, by the last one to complete.
+     * 
+     * @throws CompletionException
+     *             (or CancellationException) if any of the stages completed
+     *             exceptionally.
+     */
+    public static void awaitAll(Collection<? extends CompletionStage<?>> stages) throws Pausable {
+        if (allDone(stages))
+            return;
+        StageReason r = new StageReason(getCurrentTask(), stages.size(), false);
+        for (CompletionStage<?> s : stages) {
+            s.whenComplete(r);
+        }
+        while (!r.isDone()) {
+            pause(r);
+        }
+        r.result();
+    }
+
+    public static void awaitAll(CompletionStage<?>... stages) throws Pausable {
+        awaitAll(Arrays.asList(stages));
+    }
+
+    /**
+     * Pause the current task until one of the stages completes, and return
+     * its result.
+     * 
+     * @throws CompletionException
+     *             (or CancellationException) if the first stage to complete
+     *             did so exceptionally.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T awaitAny(Collection<? extends CompletionStage<? extends T>> stages) throws Pausable {
+        if (stages.isEmpty())
+            throw new IllegalArgumentException("No stages to wait for");
+        for (CompletionStage<? extends T> s : stages) {
+            if (s instanceof CompletableFuture && ((CompletableFuture<? extends T>) s).isDone())
+                return ((CompletableFuture<? extends T>) s).join();
+        }
+        StageReason r = new StageReason(getCurrentTask(), 1, true);
+        for (CompletionStage<? extends T> s : stages) {
+            s.whenComplete(r);
+        }
+        while (!r.isDone()) {
+            pause(r);
+        }
+        return (T) r.result();
+    }
+
+    /**
+     * Run a blocking call (a JDBC query, a legacy RPC client) on the default
+     * BlockingPool, and pause the current task until it returns, so that the
+     * scheduler's thread is free for other tasks meanwhile. The task also
+     * pauses while the pool is saturated.
+     * 
+     * @throws Exception
+     *             whatever the callable threw
+     * @see BlockingPool
+     */
+    public static <T> T runBlocking(Callable<T> callable) throws Pausable, Exception {
+        return BlockingPool.getDefaultPool().call(callable);
+    }
+
+    /*
+     * true if all stages are completed futures; throws the exception of the
+     * first one that completed exceptionally.
+     */
+    private static boolean allDone(Collection<? extends CompletionStage<?>> stages) {
+        for (CompletionStage<?> s : stages) {
+            if (!(s instanceof CompletableFuture) || !((CompletableFuture<?>) s).isDone())
+                return false;
+        }
+        for (CompletionStage<?> s : stages) {
+            ((CompletableFuture<?>) s).join();
+        }
+        return true;
+    }
+
+    /**
+     * Start a child of the current task, on the current task's scheduler
+     * (or the default one). The child inherits the parent's FiberLocals, and
+     * is cancelled if the parent fails.
+     */
+    public static <T extends Task> T spawn(T child) throws Pausable {
+        Task parent = getCurrentTask();
+        child.inheritLocals(parent);
+        parent.addChild(child);
+        Scheduler s = parent.scheduler;
+        child.start(s != null ? s : Scheduler.getDefaultScheduler());
+        return child;
+    }
+
+    private void addChild(Task child) {
+        ArrayList<Task> cs = children;
+        if (cs == null) {
+            children = cs = new ArrayList<Task>();
+            pruneChildrenAt = 16;
+        } else if (cs.size() >= pruneChildrenAt) {
+            cs.removeIf(Task::isDone);
+            pruneChildrenAt = Math.max(16, cs.size() * 2);
+        }
+        cs.add(child);
+    }
+
+    /**
+     * Pause the current task until this one is done, and return its exit
+     * value.
+     * 
+     * @throws CompletionException
+     *             (or CancellationException) if the task failed, wrapping its
+     *             exitResult.
+     */
+    public Object join() throws Pausable {
+        if (state != DONE) {
+            StageReason r = new StageReason(getCurrentTask(), 1, false);
+            if (addDoneListener(r)) {
+                while (!r.isDone()) {
+                    pause(r);
+                }
+            }
+        }
+        return result();
+    }
+
+    /**
+     * Pause the current task until all the given tasks are done. All of them
+     * share a single pause reason, and the current task is resumed once, by
+     * the last one to finish.
+     * 
+     * @throws CompletionException
+     *             (or CancellationException) for the first of the tasks, in
+     *             iteration order, that failed.
+     */
+    public static void joinAll(Collection<? extends Task> tasks) throws Pausable {
+        // one extra count, so that nobody resumes us while we are still
+        // registering
+        StageReason r = new StageReason(getCurrentTask(), tasks.size() + 1, false);
+        int done = 1;
+        for (Task t : tasks) {
+            if (!t.addDoneListener(r)) {
+                done++;
+            }
+        }
+        if (r.addAndGet(-done) != 0) {
+            while (!r.isDone()) {
+                pause(r);
+            }
+        }
+        for (Task t : tasks) {
+            t.result();
+        }
+    }
+
+    /*
+     * The exit value of a done task, or its failure thrown the way
+     * CompletableFuture.join() does.
+     */
+    private Object result() {
+        Object res = exitResult;
+        if (res instanceof Throwable)
+            throw StageReason.wrap((Throwable) res);
+        return res;
+    }
+
+    /*
+     * Have the callback called with (exitResult, null) or (null, failure)
+     * when the task is done, on the thread that ran it to completion.
+     * 
+     * @return false, without calling it, if the task is done already.
+     */
+    boolean addDoneListener(BiConsumer<Object, Throwable> callback) {
+        for (;;) {
+            DoneListener head = doneListeners;
+            if (head == NOTIFYING || head == EXITED)
+                return false;
+            if (doneListenersUpdater.compareAndSet(this, head, new DoneListener(callback, head)))
+                return true;
+        }
+    }
+
+    private void notifyDone(DoneListener l) {
+        Object res = exitResult;
+        Throwable th = res instanceof Throwable ? (Throwable) res : null;
+        for (; l != null; l = l.next) {
+            try {
+                l.callback.accept(th == null ? res : null, th);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Ask the task to stop. Cancellation is cooperative: the task gets a
+     * TaskCancelledException at its next cancellation point, which is any
+     * pausable call, pause or yield, or an explicit checkKill(). A paused task
+     * is resumed to get it where it paused. Its exitResult is the exception,
+     * and its own children are cancelled in turn.
+     * 
+     * @return false if the task is done already.
+     */
+    public boolean cancel() {
+        return cancel("Task " + id + " was cancelled");
+    }
+
+    private boolean cancel(String message) {
+        if (state == DONE)
+            return false;
+        if (!cancelled) {
+            cancelMessage = message;
+            cancelled = true;
+        }
+        resume();
+        return true;
+    }
+
+    /**
+     * Cancel the task if it is not done timeoutMillis from now. On a
+     * scheduler, a timer enforces the deadline even while the task is paused;
+     * a task driven directly notices it at its next pause. To be called before
+     * the task is started, or by the task itself.
+     */
+    public void setDeadline(long timeoutMillis) {
+        long d = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMillis, 0));
+        deadline = d == 0 ? 1 : d;
+        if (scheduler != null) {
+            armDeadline();
+        }
+    }
+
+    private void armDeadline() {
+        Timer old = deadlineTimer;
+        if (old != null) {
+            old.cancel();
+        }
+        long left = deadline - System.nanoTime();
+        // round up, so that the timer never fires before the deadline
+        deadlineTimer = getTimerWheel().schedule(new DeadlineTimer(this), left <= 0 ? 0 : (left + 999999) / 1000000);
+    }
+
+    private static final class DeadlineTimer extends Timer {
+        DeadlineTimer(Task task) {
+            super(task);
+        }
+
+        protected void expired() {
+            task.cancel("Task " + task.id + " missed its deadline");
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void cancelChildren() {
+        ArrayList<Task> cs = children;
+        if (cs == null)
+            return;
+        children = null;
+        for (Task c : cs) {
+            c.cancel();
+        }
+    }
+
+    private TimerWheel getTimerWheel() {
+        Scheduler s = scheduler;
+        if (s == null) {
+            throw new IllegalStateException("Task " + id + " is not running on a scheduler, see Task.start()");
+        }
+        return s.getTimerWheel();
     }
 
     /*
@@ -507,13 +1014,11 @@ public abstract class Task implements Runnable {
     }
 
     public String toString() {
-        return "" + id + "(running=" + running + ",pr=" + pauseReason + ")";
+        return "" + id + "(" + stateNames[state] + ",pr=" + pauseReason + ")";
     }
 
     public String dump() {
-        synchronized (this) {
-            return "" + id + "(running=" + running + ", pr=" + pauseReason + ")";
-        }
+        return "" + id + "(" + stateNames[state] + ", pr=" + pauseReason + ")";
     }
 
     final protected void setPauseReason(PauseReason pr) {
@@ -524,16 +1029,56 @@ public abstract class Task implements Runnable {
         return pauseReason;
     }
 
-    public synchronized boolean isDone() {
-        return done;
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    /**
+     * Whether the task is queued on a scheduler or being run, as the old
+     * protected running field said. Derived from the state, which may have
+     * moved on by the time the answer is looked at.
+     * 
+     * @deprecated the running and done fields are gone; use the task's own
+     *             pause reasons, join() or isDone() instead.
+     */
+    @Deprecated
+    public boolean isRunning() {
+        int st = state;
+        return st == READY || st == RUNNING || st == RESUMED;
     }
 
     /**
-     * Run the fiber until pause/yield is called inside
+     * Run the fiber until pause/yield is called inside. Does nothing if the
+     * task is done.
+     * 
+     * @throws IllegalStateException
+     *             if the task is being run by another thread at the same
+     *             time.
      */
-    public synchronized void _runExecute() throws NotPausable {
+    public void _runExecute() throws NotPausable {
+        for (;;) {
+            int st = state;
+            if (st == DONE)
+                return;
+            if (st == RUNNING || st == RESUMED)
+                throw new IllegalStateException("Task " + id + " is already running");
+            if (stateUpdater.compareAndSet(this, st, RUNNING))
+                break;
+        }
+        if (TaskThreads.ENABLED) {
+            stepThreaded();
+            return;
+        }
         Fiber f = fiber;
         boolean isDone = false;
+        // generators run nested inside a task, so the record is restored
+        Thread cur = Thread.currentThread();
+        WorkerThread wt = cur instanceof WorkerThread ? (WorkerThread) cur : null;
+        Task outer = null;
+        if (wt != null) {
+            outer = wt.running;
+            wt.running = this;
+        }
         try {
             // start execute. fiber is wound to the beginning.
             execute(f.begin());
@@ -544,26 +1089,258 @@ public abstract class Task implements Runnable {
             // Definitely done
             setPauseReason(new TaskDoneReason(th));
             isDone = true;
+        } finally {
+            if (wt != null) {
+                wt.running = outer;
+            }
         }
 
         if (isDone) {
-            // inform on exit
-            if (pauseReason instanceof TaskDoneReason) {
-                exitResult = ((TaskDoneReason) pauseReason).exitObj;
-                if (exitResult instanceof Throwable) {
-                    throw new RuntimeException("task is done with exception", (Throwable) exitResult);
-                }
+            done();
+            if (exitResult instanceof Throwable) {
+                throw new RuntimeException("task is done with exception", (Throwable) exitResult);
             }
-            done = true;
+        } else if (scheduler != null) {
+            reschedule();
         } else {
-            running = false;
+            state = PAUSED;
+        }
+    }
+
+    private void done() {
+        // inform on exit
+        if (pauseReason instanceof TaskDoneReason) {
+            exitResult = ((TaskDoneReason) pauseReason).exitObj;
+        }
+        Timer dt = deadlineTimer;
+        if (dt != null) {
+            dt.cancel();
         }
+        if (exitResult instanceof Throwable) {
+            cancelChildren();
+        }
+        // the listeners are taken before DONE is published, as from then on
+        // the task may be reset; reset() waits until they have been called
+        DoneListener l = doneListenersUpdater.getAndSet(this, NOTIFYING);
+        state = DONE;
+        notifyDone(l);
+        doneListeners = EXITED;
     }
 
     public void run() {
         _runExecute();
     }
 
+    /*
+     * The thread backend. A task on a scheduler gets its thread on the first
+     * resume() (from start()), and parks it whenever it pauses; resume()
+     * unparks it. A task driven directly hands control back and forth with
+     * the thread calling _runExecute(), so that generators see the same
+     * steps as with fibers. Once the scheduler is shut down, a task's thread
+     * quits at its next pause or yield, where a worker would have dropped
+     * the task.
+     */
+
+    private void wake() {
+        Thread c = carrier;
+        if (c == null) {
+            carrier = c = TaskThreads.newThread(this);
+            c.start();
+        } else {
+            LockSupport.unpark(c);
+        }
+    }
+
+    private void stepThreaded() {
+        driver = Thread.currentThread();
+        wake();
+        while (state == RUNNING) {
+            LockSupport.park(this);
+        }
+        driver = null;
+        if (state == DONE && exitResult instanceof Throwable) {
+            throw new RuntimeException("task is done with exception", (Throwable) exitResult);
+        }
+    }
+
+    /*
+     * The body of the task's thread. Runs execute() unwoven, hence the
+     * NotPausable.
+     */
+    void runThreaded() throws NotPausable {
+        Thread me = Thread.currentThread();
+        state = RUNNING;
+        try {
+            execute();
+        } catch (Throwable th) {
+            if (th == ThreadExit.ABANDONED || carrier != me)
+                return; // reset() or the scheduler's shutdown has let go of us
+            // exit() unwinds with the reason already set
+            if (th != ThreadExit.INSTANCE) {
+                setPauseReason(new TaskDoneReason(th));
+            }
+        }
+        done();
+        Thread d = driver;
+        if (d != null) {
+            LockSupport.unpark(d);
+        }
+    }
+
+    private static void pauseThreaded(PauseReason reason) {
+        Task t = TaskThreads.currentTask();
+        if (t == null) {
+            errNotWoven();
+            return;
+        }
+        t.checkKill();
+        Scheduler s = t.scheduler;
+        Thread me = Thread.currentThread();
+        // a worker would drop us from its run queue after shutdown()
+        if (s != null && s.shutdown)
+            throw ThreadExit.ABANDONED;
+        t.setPauseReason(reason);
+        if (s == null) {
+            t.state = PAUSED;
+            LockSupport.unpark(t.driver);
+            while (t.state == PAUSED && t.carrier == me) {
+                LockSupport.park(t);
+            }
+        } else if (reason == yieldReason) {
+            Thread.yield();
+            stateUpdater.compareAndSet(t, RESUMED, RUNNING);
+        } else {
+            for (;;) {
+                if (stateUpdater.compareAndSet(t, RUNNING, PAUSED)) {
+                    while (t.state == PAUSED && t.carrier == me) {
+                        LockSupport.park(t);
+                    }
+                    t.state = RUNNING;
+                    break;
+                }
+                if (stateUpdater.compareAndSet(t, RESUMED, RUNNING))
+                    break;
+            }
+        }
+        if (t.carrier != me || (s != null && s.shutdown))
+            throw ThreadExit.ABANDONED;
+        t.setPauseReason(null);
+        t.checkKill();
+    }
+
+    private static void exitThreaded(TaskDoneReason reason) {
+        Task t = TaskThreads.currentTask();
+        if (t == null) {
+            errNotWoven();
+            return;
+        }
+        t.setPauseReason(reason);
+        throw ThreadExit.INSTANCE;
+    }
+
+    /*
+     * Unwinds a task's thread on exit(), or (ABANDONED) when reset() or the
+     * scheduler's shutdown() has let go of it.
+     */
+    @SuppressWarnings("serial")
+    private static final class ThreadExit extends Error {
+        static final ThreadExit INSTANCE = new ThreadExit();
+        static final ThreadExit ABANDONED = new ThreadExit();
+
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * "fiber" if tasks are woven, or "virtual-thread" or "platform-thread"
+     * for the thread backend, see the system property "kilim.Task.backend".
+     */
+    public static String backend() {
+        return TaskThreads.name();
+    }
+
+    /**
+     * Make a finished task ready to be run (or started) again from the top of
+     * execute(), keeping its id and its fiber's state stack. Subclasses that
+     * carry per-run fields should override this, call super.reset() and clear
+     * them. A task that is driven directly (not started on a scheduler) may
+     * also be reset before it is done.
+     * 
+     * @throws IllegalStateException
+     *             if the task is running, or is still on a scheduler and not
+     *             done.
+     * @see TaskPool
+     */
+    public void reset() {
+        int st = state;
+        if (st == RUNNING || st == RESUMED || (scheduler != null && st != DONE)) {
+            throw new IllegalStateException("Task " + id + " is still running");
+        }
+        // a task that has only just become done may still be telling its
+        // joiners
+        while (doneListeners == NOTIFYING) {
+            Thread.yield();
+        }
+        fiber.reset();
+        Thread c = carrier;
+        if (c != null) {
+            // let a carrier parked mid-execute() run out
+            carrier = null;
+            LockSupport.unpark(c);
+        }
+        locals = NO_LOCALS;
+        localsShared = false;
+        children = null;
+        cancelled = false;
+        cancelMessage = null;
+        if (deadlineTimer != null) {
+            deadlineTimer.cancel();
+            deadlineTimer = null;
+        }
+        deadline = 0;
+        doneListeners = null;
+        pauseReason = null;
+        exitResult = "OK";
+        scheduler = null;
+        state = PAUSED;
+    }
+
+    /**
+     * Start out with the FiberLocal values of the given task. Nothing is
+     * copied here; the array is shared until one of the two tasks sets a
+     * value. Must be called before this task is started, by the parent's own
+     * thread (typically from within the parent) or while the parent is not
+     * running.
+     */
+    public void inheritLocals(Task parent) {
+        Object[] pl = parent.locals;
+        if (pl.length == 0)
+            return;
+        parent.localsShared = true;
+        locals = pl;
+        localsShared = true;
+    }
+
+    /*
+     * The locals array, made private to this task and large enough for the
+     * given index.
+     */
+    Object[] localsForWrite(int index) {
+        Object[] l = locals;
+        if (index >= l.length) {
+            // make room for all fiber locals created so far in one go
+            l = Arrays.copyOf(l, Math.max(index + 1, FiberLocal.count()));
+            locals = l;
+            localsShared = false;
+        } else if (localsShared) {
+            l = l.clone();
+            locals = l;
+            localsShared = false;
+        }
+        return l;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj == this;
@@ -574,6 +1351,18 @@ public abstract class Task implements Runnable {
         return id;
     }
 
+    /**
+     * A cancellation point: throws TaskCancelledException if the task has
+     * been cancelled or has missed its deadline. Called at every pause and
+     * yield, and (for the cancelled flag only) at every pausable call; long
+     * loops that make no pausable calls may call it themselves.
+     */
     public void checkKill() {
+        if (deadline != 0 && !cancelled && System.nanoTime() - deadline >= 0) {
+            cancel("Task " + id + " missed its deadline");
+        }
+        if (cancelled) {
+            throw new TaskCancelledException(cancelMessage);
+        }
     }
 }
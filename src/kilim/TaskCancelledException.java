@@ -0,0 +1,30 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Thrown inside a task that has been cancelled, or has run past its deadline,
+ * at its next cancellation point (see Task.checkKill()). It unwinds the task's
+ * frames like any other exception, running finally blocks on the way, and
+ * ends up as the task's exitResult. Catching it does not stop the
+ * cancellation; the next cancellation point throws again.
+ * 
+ * No stack trace is filled in, so throwing it is cheap.
+ */
+@SuppressWarnings("serial")
+public class TaskCancelledException extends CancellationException {
+    public TaskCancelledException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of finished tasks, for code that would otherwise create a
+ * short-lived task per request. get() hands out a pooled task (or a fresh
+ * one from create()), and release() resets a finished task and keeps it for
+ * the next get(). For example:
+ * 
+ * <pre>
+ * TaskPool&lt;Handler&gt; pool = new TaskPool&lt;Handler&gt;(1000) {
+ *     protected Handler create() {
+ *         return new Handler();
+ *     }
+ * };
+ * Handler h = pool.get();
+ * h.setRequest(req);
+ * h.start();
+ * ...
+ * // once h is done: by whoever joins it, or sees h.isDone(); never from
+ * // within h.execute(), where h is still running
+ * pool.release(h);
+ * </pre>
+ * 
+ * @see Task#reset()
+ */
+public abstract class TaskPool<T extends Task> {
+    private final ConcurrentLinkedQueue<T> free = new ConcurrentLinkedQueue<T>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSize;
+
+    public TaskPool(int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Illegal maxSize: " + maxSize);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Create a new task when the pool is empty.
+     */
+    protected abstract T create();
+
+    public T get() {
+        T t = free.poll();
+        if (t == null)
+            return create();
+        size.decrementAndGet();
+        return t;
+    }
+
+    /**
+     * Reset the task and return it to the pool. The task must be done, as
+     * seen by join() or isDone(). The caller must not touch the task
+     * afterwards.
+     * 
+     * @return false if the task was dropped because the pool is full.
+     * @throws IllegalStateException
+     *             if the task is on a scheduler and not done yet.
+     */
+    public boolean release(T t) {
+        t.reset();
+        for (;;) {
+            int n = size.get();
+            if (n >= maxSize)
+                return false;
+            if (size.compareAndSet(n, n + 1))
+                break;
+        }
+        free.offer(t);
+        return true;
+    }
+
+    public int size() {
+        return size.get();
+    }
+}
@@ -0,0 +1,109 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.lang.reflect.Method;
+
+/**
+ * The thread backend: with the system property "kilim.Task.backend" set to
+ * "thread", every task runs execute() on a thread of its own, and Task.pause()
+ * and yield() park that thread instead of unwinding a fiber. Nothing needs to
+ * be woven, so tasks run as compiled, and kilim itself must be on the
+ * classpath unwoven too (see the "unwoven" ant target).
+ * 
+ * The threads are virtual threads where the JDK has them (21 and up), looked
+ * up by reflection so that kilim still builds for and runs on older JDKs;
+ * there, and with "kilim.Task.backend" set to "platform-thread", they are
+ * plain daemon threads.
+ * 
+ * Cancellation is only noticed at pauses and explicit checkKill() calls, as
+ * there are no woven frames to check at.
+ */
+final class TaskThreads {
+    static final String BACKEND_PROP = "kilim.Task.backend";
+
+    static final boolean ENABLED;
+
+    /*
+     * Thread.Builder.unstarted() and a virtual thread builder, or null
+     */
+    private static final Method unstarted;
+    private static final Object builder;
+
+    private static final ThreadLocal<Task> current = new ThreadLocal<Task>();
+
+    static {
+        String b = System.getProperty(BACKEND_PROP, "fiber");
+        ENABLED = b.equals("thread") || b.equals("platform-thread");
+        Method m = null;
+        Object vb = null;
+        if (b.equals("thread")) {
+            try {
+                vb = Thread.class.getMethod("ofVirtual").invoke(null);
+                m = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            } catch (Exception noVirtualThreads) {
+                m = null;
+                vb = null;
+            }
+        } else if (!ENABLED && !b.equals("fiber")) {
+            throw new IllegalArgumentException("Unknown " + BACKEND_PROP + ": " + b);
+        }
+        unstarted = m;
+        builder = vb;
+        if (ENABLED && isWoven()) {
+            throw new IllegalStateException(BACKEND_PROP + "=" + b + " needs kilim's classes unwoven");
+        }
+    }
+
+    private static boolean isWoven() {
+        try {
+            Task.class.getField(Constants.WOVEN_FIELD);
+            return true;
+        } catch (NoSuchFieldException e) {
+            return false;
+        }
+    }
+
+    private TaskThreads() {
+    }
+
+    static String name() {
+        if (!ENABLED)
+            return "fiber";
+        return builder != null ? "virtual-thread" : "platform-thread";
+    }
+
+    /**
+     * @return the task running on this thread, or null
+     */
+    static Task currentTask() {
+        return ENABLED ? current.get() : null;
+    }
+
+    static Thread newThread(final Task t) {
+        Runnable r = new Runnable() {
+            public void run() {
+                current.set(t);
+                try {
+                    t.runThreaded();
+                } finally {
+                    current.remove();
+                }
+            }
+        };
+        if (builder != null) {
+            try {
+                return (Thread) unstarted.invoke(builder, r);
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not create a virtual thread", e);
+            }
+        }
+        Thread th = new Thread(r, "KilimTask-" + t.id);
+        th.setDaemon(true);
+        return th;
+    }
+}
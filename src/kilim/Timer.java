@@ -0,0 +1,88 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A timeout scheduled on a TimerWheel. When it expires, the task it was
+ * created for is resumed (subclasses may do something else by overriding
+ * expired()). A timer is also the pause reason of a task in Task.sleep().
+ *
+ * @see TimerWheel#schedule(Timer, long)
+ */
+public class Timer implements PauseReason {
+    static final int  PENDING   = 0;
+    static final int  FIRED     = 1;
+    static final int  CANCELLED = 2;
+
+    private volatile int state = PENDING;
+    private static final AtomicIntegerFieldUpdater<Timer> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(Timer.class, "state");
+
+    protected final Task task;
+
+    /*
+     * The rest is owned by the wheel's thread.
+     */
+    TimerWheel wheel;
+    long deadline;  // in ticks
+    Timer prev, next;
+
+    public Timer(Task task) {
+        this.task = task;
+    }
+
+    /**
+     * @return true if the timer was cancelled before it expired.
+     */
+    public boolean cancel() {
+        if (stateUpdater.compareAndSet(this, PENDING, CANCELLED)) {
+            TimerWheel w = wheel;
+            if (w != null) {
+                w.cancelled(this);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public boolean hasFired() {
+        return state == FIRED;
+    }
+
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    boolean fire() {
+        if (stateUpdater.compareAndSet(this, PENDING, FIRED)) {
+            expired();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called on the wheel's thread when the timer expires; must not block.
+     */
+    protected void expired() {
+        if (task != null) {
+            task.resume();
+        }
+    }
+
+    public String toString() {
+        switch (state) {
+        case FIRED:
+            return "timer(fired)";
+        case CANCELLED:
+            return "timer(cancelled)";
+        default:
+            return "timer(deadline = " + deadline + ")";
+        }
+    }
+}
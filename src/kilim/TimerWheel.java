@@ -0,0 +1,229 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed hierarchical timing wheel, in the style of the classic Unix kernel
+ * timers. Level 0 has 256 slots of one tick each; each of the four upper
+ * levels has 64 slots, each slot covering a whole turn of the level below.
+ * Whenever level 0 wraps around, the next slot of level 1 is cascaded down
+ * into it, and so on up the levels. Timers further out than 2^32 ticks wait
+ * in the last slot of the top level and are re-inserted from there.
+ *
+ * The wheel itself is touched by its own (daemon) thread only. Other threads
+ * hand new and cancelled timers over through lock-free queues, so both
+ * schedule() and Timer.cancel() are O(1) and never block. The thread parks
+ * while the wheel is empty.
+ *
+ * The tick length of the scheduler's wheel is read from the system property
+ * "kilim.TimerWheel.tickMillis", and defaults to one millisecond.
+ */
+public class TimerWheel implements Runnable {
+    public static final String TICK_PROP = "kilim.TimerWheel.tickMillis";
+
+    static final int L0_BITS    = 8;
+    static final int L0_MASK    = (1 << L0_BITS) - 1;
+    static final int LN_BITS    = 6;
+    static final int LN_MASK    = (1 << LN_BITS) - 1;
+    static final int NUM_LEVELS = 5;
+    static final long MAX_DELTA = (1L << (L0_BITS + (NUM_LEVELS - 1) * LN_BITS)) - 1;
+
+    /*
+     * One sentinel per slot, heading a circular doubly linked list of timers
+     */
+    private final Timer[][] levels = new Timer[NUM_LEVELS][];
+
+    private final long startNanos;
+    private final long tickNanos;
+
+    /*
+     * The next tick to be processed.
+     */
+    private long now;
+
+    /*
+     * Number of timers linked into the wheel
+     */
+    private int count;
+
+    private final ConcurrentLinkedQueue<Timer> incoming = new ConcurrentLinkedQueue<Timer>();
+    private final ConcurrentLinkedQueue<Timer> cancelled = new ConcurrentLinkedQueue<Timer>();
+
+    private final Thread thread;
+    private volatile boolean idle = false;
+    private volatile boolean shutdown = false;
+
+    public TimerWheel() {
+        this(Long.getLong(TICK_PROP, 1L), TimeUnit.MILLISECONDS);
+    }
+
+    public TimerWheel(long tick, TimeUnit unit) {
+        tickNanos = unit.toNanos(tick);
+        if (tickNanos <= 0)
+            throw new IllegalArgumentException("Illegal tick: " + tick + " " + unit);
+        for (int l = 0; l < NUM_LEVELS; l++) {
+            Timer[] slots = new Timer[l == 0 ? L0_MASK + 1 : LN_MASK + 1];
+            for (int i = 0; i < slots.length; i++) {
+                Timer sentinel = new Timer(null);
+                sentinel.prev = sentinel.next = sentinel;
+                slots[i] = sentinel;
+            }
+            levels[l] = slots;
+        }
+        startNanos = System.nanoTime();
+        thread = new Thread(this, "KilimTimer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Resume the task after the given delay, unless the returned timer is
+     * cancelled first.
+     */
+    public Timer schedule(Task task, long delayMillis) {
+        return schedule(new Timer(task), delayMillis);
+    }
+
+    public Timer schedule(Timer timer, long delayMillis) {
+        if (shutdown)
+            throw new IllegalStateException("Timer wheel has been shut down");
+        if (timer.wheel != null)
+            throw new IllegalStateException("Timer has already been scheduled");
+        long delay = TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+        // round up, a timer must never fire early
+        timer.deadline = (System.nanoTime() - startNanos + delay + tickNanos - 1) / tickNanos;
+        timer.wheel = this;
+        incoming.offer(timer);
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+        return timer;
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(thread);
+    }
+
+    void cancelled(Timer timer) {
+        cancelled.offer(timer);
+    }
+
+    public void run() {
+        while (!shutdown) {
+            drain();
+            long target = (System.nanoTime() - startNanos) / tickNanos;
+            while (now <= target) {
+                if (count == 0) {
+                    now = target + 1;
+                    break;
+                }
+                processTick();
+            }
+            if (count == 0) {
+                idle = true;
+                if (incoming.isEmpty() && !shutdown) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+            } else {
+                long wait = startNanos + now * tickNanos - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+        }
+    }
+
+    private void drain() {
+        Timer t;
+        while ((t = incoming.poll()) != null) {
+            if (!t.isCancelled()) {
+                insert(t);
+            }
+        }
+        while ((t = cancelled.poll()) != null) {
+            if (t.next != null) {
+                unlink(t);
+            }
+        }
+    }
+
+    private void processTick() {
+        int index = (int) (now & L0_MASK);
+        if (index == 0) {
+            // level 0 has wrapped around; pull the next batch down
+            for (int l = 1; l < NUM_LEVELS; l++) {
+                int i = (int) ((now >> (L0_BITS + (l - 1) * LN_BITS)) & LN_MASK);
+                cascade(levels[l][i]);
+                if (i != 0)
+                    break;
+            }
+        }
+        Timer sentinel = levels[0][index];
+        while (sentinel.next != sentinel) {
+            Timer t = sentinel.next;
+            unlink(t);
+            if (t.deadline > now) {
+                // parked in the top level beyond MAX_DELTA
+                insert(t);
+            } else {
+                try {
+                    t.fire();
+                } catch (Throwable th) {
+                    th.printStackTrace();
+                }
+            }
+        }
+        now++;
+    }
+
+    private void cascade(Timer sentinel) {
+        while (sentinel.next != sentinel) {
+            Timer t = sentinel.next;
+            unlink(t);
+            insert(t);
+        }
+    }
+
+    private void insert(Timer t) {
+        long expires = t.deadline < now ? now : t.deadline;
+        long delta = expires - now;
+        Timer sentinel;
+        if (delta <= L0_MASK) {
+            sentinel = levels[0][(int) (expires & L0_MASK)];
+        } else {
+            if (delta > MAX_DELTA) {
+                expires = now + MAX_DELTA;
+                delta = MAX_DELTA;
+            }
+            int l = 1;
+            int shift = L0_BITS;
+            while (delta >= (1L << (shift + LN_BITS))) {
+                l++;
+                shift += LN_BITS;
+            }
+            sentinel = levels[l][(int) ((expires >> shift) & LN_MASK)];
+        }
+        t.prev = sentinel.prev;
+        t.next = sentinel;
+        sentinel.prev.next = t;
+        sentinel.prev = t;
+        count++;
+    }
+
+    private void unlink(Timer t) {
+        t.prev.next = t.next;
+        t.next.prev = t.prev;
+        t.prev = t.next = null;
+        count--;
+    }
+}
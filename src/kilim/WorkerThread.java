@@ -0,0 +1,82 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A carrier thread of a Scheduler. It runs tasks off its own queue in FIFO
+ * order and steals from the tail of other workers' queues when its own is
+ * empty. The queue is a lock-free deque: the owner takes from its head,
+ * thieves from its tail, and idle workers look at it before they park,
+ * without holding up each other.
+ */
+final class WorkerThread extends Thread {
+    final Scheduler scheduler;
+
+    private final ConcurrentLinkedDeque<Task> runQ = new ConcurrentLinkedDeque<Task>();
+
+    /*
+     * true while this worker is in the scheduler's idle queue
+     */
+    final AtomicBoolean inIdleQueue = new AtomicBoolean();
+
+    private int victim;
+
+    /*
+     * The task in _runExecute() on this thread, see Task.runningTask()
+     */
+    Task running;
+
+    WorkerThread(Scheduler s, int index) {
+        super("KilimWorker-" + index);
+        scheduler = s;
+        victim = index + 1;
+        setDaemon(true);
+    }
+
+    void push(Task t) {
+        runQ.addLast(t);
+    }
+
+    Task poll() {
+        return runQ.pollFirst();
+    }
+
+    Task steal() {
+        return runQ.pollLast();
+    }
+
+    boolean hasTasks() {
+        return !runQ.isEmpty();
+    }
+
+    int nextVictim() {
+        return victim++ & Integer.MAX_VALUE;
+    }
+
+    public void run() {
+        Scheduler s = scheduler;
+        while (!s.shutdown) {
+            Task t = poll();
+            if (t == null) {
+                t = s.steal(this);
+            }
+            if (t == null) {
+                s.idle(this);
+                continue;
+            }
+            try {
+                t._runExecute();
+            } catch (Throwable th) {
+                // The task is done; the cause has been recorded in its
+                // exitResult.
+            }
+        }
+    }
+}
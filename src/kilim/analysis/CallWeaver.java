@@ -61,7 +61,9 @@ import static asm5.org.objectweb.asm.Opcodes.I2C;
 import static asm5.org.objectweb.asm.Opcodes.I2S;
 import static asm5.org.objectweb.asm.Opcodes.ICONST_0;
 import static asm5.org.objectweb.asm.Opcodes.ICONST_M1;
+import static asm5.org.objectweb.asm.Opcodes.IFNE;
 import static asm5.org.objectweb.asm.Opcodes.ILOAD;
+import static asm5.org.objectweb.asm.Opcodes.INSTANCEOF;
 import static asm5.org.objectweb.asm.Opcodes.INVOKESPECIAL;
 import static asm5.org.objectweb.asm.Opcodes.INVOKESTATIC;
 import static asm5.org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
@@ -210,6 +212,7 @@ public class CallWeaver {
         Frame f = bb.startFrame;
         MethodWeaver mw = methodWeaver;
         varUsage.set(mw.getFiberVar());
+        varUsage.set(mw.getDepthVar()); // reserved for genException
         numVars = mw.getFiberVar() + 1; // knowing fiberVar is beyond anything
                                         // that's used
         mw.ensureMaxVars(numVars);
@@ -557,10 +560,35 @@ public class CallWeaver {
          * the method weaver's list. This allows us to do a switch in the
          * method's entry.
          */
+        boolean reuse = ClassWeaver.reuseStates;
+        LabelNode reuseLabel = null, stateLabel = null;
+        if (reuse) {
+            /*
+             * state = fiber.spareState(); 
+             * if (!(state instanceof xxxState)) state = new xxxState();
+             * 
+             * Every field of the state class is overwritten below, so a
+             * recycled state carries nothing over from its previous use.
+             */
+            reuseLabel = new LabelNode();
+            stateLabel = new LabelNode();
+            loadVar(mv, TOBJECT, methodWeaver.getFiberVar());
+            mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "spareState", "()" + D_STATE);
+            mv.visitInsn(DUP);
+            mv.visitTypeInsn(INSTANCEOF, stateClassName);
+            mv.visitJumpInsn(IFNE, reuseLabel.getLabel());
+            mv.visitInsn(POP);
+        }
         mv.visitTypeInsn(NEW, stateClassName);
         mv.visitInsn(DUP); // 
         // call constructor
         mv.visitMethodInsn(INVOKESPECIAL, stateClassName, "<init>", "()V");
+        if (reuse) {
+            mv.visitJumpInsn(GOTO, stateLabel.getLabel());
+            reuseLabel.accept(mv);
+            mv.visitTypeInsn(CHECKCAST, stateClassName);
+            stateLabel.accept(mv);
+        }
         // save state in register
         int stateVar = allocVar(1);
         storeVar(mv, TOBJECT, stateVar);
@@ -569,6 +597,11 @@ public class CallWeaver {
             loadVar(mv, TOBJECT, stateVar);
             mv.visitVarInsn(ALOAD, 0); // for state.self == this
             mv.visitFieldInsn(PUTFIELD, STATE_CLASS, "self", D_OBJECT);
+        } else if (reuse) {
+            // don't keep the previous owner of a recycled state alive
+            loadVar(mv, TOBJECT, stateVar);
+            mv.visitInsn(ACONST_NULL);
+            mv.visitFieldInsn(PUTFIELD, STATE_CLASS, "self", D_OBJECT);
         }
         int pc = methodWeaver.getPC(this);
         loadVar(mv, TOBJECT, stateVar); // state.pc
@@ -5,6 +5,7 @@
  */
 
 package kilim.analysis;
+import static kilim.Constants.PAUSABLE_METHODS_FIELD;
 import static kilim.Constants.STATE_CLASS;
 import static kilim.Constants.WOVEN_FIELD;
 import static asm5.org.objectweb.asm.Opcodes.ACC_FINAL;
@@ -40,6 +41,30 @@ import asm5.org.objectweb.asm.tree.InnerClassNode;
  * CPS transformed file if needed
  */
 public class ClassWeaver {
+    public static final String REUSE_STATES_PROP = "kilim.Weaver.reuseStates";
+
+    /**
+     * If set, a pausing frame recycles the state object it restored from on
+     * its last resumption (see Fiber.spareState()) instead of allocating a
+     * new one every time. This takes the allocation out of loops that pause
+     * repeatedly, such as generators, at the cost of a few instructions per
+     * pause and of keeping one spare state per frame alive until the task is
+     * done. Set with the weaver's -r option or the system property
+     * "kilim.Weaver.reuseStates".
+     */
+    public static boolean reuseStates = Boolean.getBoolean(REUSE_STATES_PROP);
+
+    public static final String FIBER_MONITORS_PROP = "kilim.Weaver.fiberMonitors";
+
+    /**
+     * If set, synchronized blocks and methods in pausable methods are woven
+     * into calls to kilim.sync.FiberMonitors instead of being rejected, so
+     * that they may contain pausable calls. See FiberMonitors for the
+     * caveats. Set with the weaver's -m option or the system property
+     * "kilim.Weaver.fiberMonitors".
+     */
+    public static boolean fiberMonitors = Boolean.getBoolean(FIBER_MONITORS_PROP);
+
     public ClassFlow classFlow;
     List<ClassInfo> classInfoList = new LinkedList<ClassInfo>();
     static ThreadLocal<HashMap<String, ClassInfo>> stateClasses_ = 
@@ -145,6 +170,12 @@ public class ClassWeaver {
          * we don't weave an already woven file
          */
         cv.visitField(ACC_PUBLIC | ACC_STATIC | ACC_FINAL, WOVEN_FIELD, "Z", "Z", Boolean.TRUE);
+        /*
+         * and list the pausable methods, so that the runtime can tell a
+         * pausable frame by name and line number (see kilim.PausableMethods)
+         */
+        cv.visitField(ACC_PUBLIC | ACC_STATIC | ACC_FINAL, PAUSABLE_METHODS_FIELD, "Ljava/lang/String;", null,
+                pausableMethods());
         // visits methods
         
         MethodFlow sam = classFlow.getSAM(); 
@@ -184,6 +215,26 @@ public class ClassWeaver {
         cv.visitEnd();
     }
 
+    /*
+     * The value of PAUSABLE_METHODS_FIELD
+     */
+    private String pausableMethods() {
+        StringBuilder sb = new StringBuilder();
+        for (MethodFlow m : classFlow.getMethodFlows()) {
+            if (!needsWeaving(m) || !m.isPausable())
+                continue;
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(m.name).append(':');
+            int[] lines = m.lineRange();
+            if (lines != null) {
+                sb.append(lines[0]).append('-').append(lines[1]);
+            }
+        }
+        return sb.toString();
+    }
+
     @SuppressWarnings(value = { "unchecked" })
     static String[] toStringArray(List list) {
         String[] array = new String[list.size()];
@@ -5,14 +5,23 @@
  */
 
 package kilim.analysis;
+import static kilim.Constants.FIBER_MONITORS_CLASS;
 import static kilim.Constants.NOT_PAUSABLE_CLASS;
 import static kilim.Constants.PAUSABLE_CLASS;
 import static kilim.analysis.BasicBlock.COALESCED;
 import static kilim.analysis.BasicBlock.ENQUEUED;
 import static kilim.analysis.BasicBlock.INLINE_CHECKED;
 import static asm5.org.objectweb.asm.Opcodes.ACC_STATIC;
+import static asm5.org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
 import static asm5.org.objectweb.asm.Opcodes.ACC_VOLATILE;
+import static asm5.org.objectweb.asm.Opcodes.ALOAD;
+import static asm5.org.objectweb.asm.Opcodes.ATHROW;
+import static asm5.org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static asm5.org.objectweb.asm.Opcodes.IRETURN;
 import static asm5.org.objectweb.asm.Opcodes.JSR;
+import static asm5.org.objectweb.asm.Opcodes.MONITORENTER;
+import static asm5.org.objectweb.asm.Opcodes.MONITOREXIT;
+import static asm5.org.objectweb.asm.Opcodes.RETURN;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -31,6 +40,7 @@ import asm5.org.objectweb.asm.Handle;
 import asm5.org.objectweb.asm.Label;
 import asm5.org.objectweb.asm.MethodVisitor;
 import asm5.org.objectweb.asm.Opcodes;
+import asm5.org.objectweb.asm.Type;
 import asm5.org.objectweb.asm.tree.AbstractInsnNode;
 import asm5.org.objectweb.asm.tree.AnnotationNode;
 import asm5.org.objectweb.asm.tree.FrameNode;
@@ -93,6 +103,15 @@ public class MethodFlow extends MethodNode {
     private HashMap<Integer, FrameNode> frameNodes = new HashMap<Integer, FrameNode>();
 
     private boolean hasPausableInvokeDynamic;
+
+    /*
+     * Set if MONITORENTER/EXIT are to be turned into FiberMonitors calls
+     * (see ClassWeaver.fiberMonitors). syncStart is the position of the
+     * body of a synchronized method, which is then covered by a handler that
+     * exits the monitor; -1 otherwise.
+     */
+    private boolean weaveMonitors;
+    private int syncStart = -1;
     
     public MethodFlow(
             ClassFlow classFlow,
@@ -119,6 +138,13 @@ public class MethodFlow extends MethodNode {
                 }
             }
         }
+        if (ClassWeaver.fiberMonitors && hasPausableAnnotation) {
+            weaveMonitors = true;
+            if ((access & ACC_SYNCHRONIZED) != 0) {
+                this.access &= ~ACC_SYNCHRONIZED;
+                syncStart = 0;
+            }
+        }
     }
 
     public void restoreNonInstructionNodes() {
@@ -224,6 +250,59 @@ public class MethodFlow extends MethodNode {
         }
     }
     
+    @Override
+    public void visitCode() {
+        super.visitCode();
+        if (syncStart != -1) {
+            loadMethodMonitor();
+            visitMethodInsn(INVOKESTATIC, FIBER_MONITORS_CLASS, "enter", "(Ljava/lang/Object;)V");
+            syncStart = instructions.size();
+        }
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+        if (weaveMonitors) {
+            if (opcode == MONITORENTER || opcode == MONITOREXIT) {
+                visitMethodInsn(INVOKESTATIC, FIBER_MONITORS_CLASS, opcode == MONITORENTER ? "enter" : "exit",
+                        "(Ljava/lang/Object;)V");
+                return;
+            }
+            if (syncStart != -1 && opcode >= IRETURN && opcode <= RETURN) {
+                exitMethodMonitor();
+            }
+        }
+        super.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        if (syncStart != -1) {
+            // the body's catch-all handler: exit and rethrow. There is only
+            // one label per position, so reuse those the code has there.
+            LabelNode start = getOrCreateLabelAtPos(syncStart);
+            LabelNode handler = getOrCreateLabelAtPos(instructions.size());
+            exitMethodMonitor();
+            super.visitInsn(ATHROW);
+            tryCatchBlocks.add(new TryCatchBlockNode(start, handler, handler, null));
+            maxStack = Math.max(maxStack + 1, 2);
+        }
+        super.visitMaxs(maxStack, maxLocals);
+    }
+
+    private void loadMethodMonitor() {
+        if ((access & ACC_STATIC) != 0) {
+            visitLdcInsn(Type.getObjectType(classFlow.name));
+        } else {
+            visitVarInsn(ALOAD, 0);
+        }
+    }
+
+    private void exitMethodMonitor() {
+        loadMethodMonitor();
+        visitMethodInsn(INVOKESTATIC, FIBER_MONITORS_CLASS, "exit", "(Ljava/lang/Object;)V");
+    }
+
     @Override
     public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
         if (!classFlow.isWoven) {
@@ -249,6 +328,21 @@ public class MethodFlow extends MethodNode {
         lineNumberNodes.put(instructions.size(), new LineNumberNode(line, ln));
     }
 
+    /**
+     * @return the first and last source line of the method, or null if it
+     *         has no line numbers
+     */
+    int[] lineRange() {
+        if (lineNumberNodes.isEmpty())
+            return null;
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (LineNumberNode node : lineNumberNodes.values()) {
+            min = Math.min(min, node.line);
+            max = Math.max(max, node.line);
+        }
+        return new int[] { min, max };
+    }
+
     void visitLineNumbers(MethodVisitor mv) {
         for (LineNumberNode node : lineNumberNodes.values()) {
             mv.visitLineNumber(node.line, node.start.getLabel());
@@ -12,6 +12,7 @@ import static kilim.Constants.FIBER_CLASS;
 import static kilim.Constants.TASK_CLASS;
 import static kilim.analysis.VMType.TOBJECT;
 import static kilim.analysis.VMType.loadVar;
+import static asm5.org.objectweb.asm.Opcodes.ACC_VARARGS;
 import static asm5.org.objectweb.asm.Opcodes.ALOAD;
 import static asm5.org.objectweb.asm.Opcodes.ASTORE;
 import static asm5.org.objectweb.asm.Opcodes.DUP;
@@ -19,6 +20,7 @@ import static asm5.org.objectweb.asm.Opcodes.GETFIELD;
 import static asm5.org.objectweb.asm.Opcodes.GOTO;
 import static asm5.org.objectweb.asm.Opcodes.INVOKESTATIC;
 import static asm5.org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static asm5.org.objectweb.asm.Opcodes.ISTORE;
 import static asm5.org.objectweb.asm.Opcodes.RETURN;
 
 import java.util.ArrayList;
@@ -69,6 +71,15 @@ public class MethodWeaver {
      * fiberVar.
      */
     private int                   fiberVar;
+
+    /**
+     * Holds the fiber's stack depth as seen on method entry. Catch handlers
+     * that cover pausable calls hand it to fiber.upEx(int), so that the fiber
+     * can recalibrate itself without walking the thread's stack trace. The
+     * slot is always reserved (right after fiberVar) but only written to if
+     * the method has such handlers.
+     */
+    private int                   depthVar;
     private int                   numWordsInSig;
     private ArrayList<CallWeaver> callWeavers = new ArrayList<CallWeaver>(5);
 
@@ -80,6 +91,7 @@ public class MethodWeaver {
         this.methodFlow = mf;
         isPausable = mf.isPausable();
         fiberVar =  methodFlow.maxLocals;
+        depthVar = fiberVar + 1;
         maxVars = fiberVar + 1;
         maxStack = methodFlow.maxStack + 1; // plus Fiber
         this.isSAM = isSAM;
@@ -94,14 +106,17 @@ public class MethodWeaver {
         String[] exceptions = ClassWeaver.toStringArray(mf.exceptions);
         String desc = mf.desc;
         String sig = mf.signature;
+        int access = mf.access;
         if (mf.isPausable()) {
             if (!isSAM) {
                 desc = desc.replace(")", D_FIBER_LAST_ARG);
                 if (sig != null)
                     sig = sig.replace(")", D_FIBER_LAST_ARG);
+                // the last parameter is the fiber now, not the varargs array
+                access &= ~ACC_VARARGS;
             }
         }
-        MethodVisitor mv = cv.visitMethod(mf.access, mf.name, desc, sig, exceptions);
+        MethodVisitor mv = cv.visitMethod(access, mf.name, desc, sig, exceptions);
 
         if (!mf.isAbstract()) {
             if (mf.needsWeaving()) {
@@ -328,6 +343,17 @@ public class MethodWeaver {
         mv.visitFieldInsn(GETFIELD, FIBER_CLASS, "task", Constants.D_TASK);
     }
 
+    /**
+     * True if some catch handler is reachable from a pausable call, i.e. if
+     * genException will generate a call to fiber.upEx(int) for it.
+     */
+    private boolean hasPausableCatchHandler() {
+        for (BasicBlock bb : methodFlow.getBasicBlocks()) {
+            if (bb.isCatchHandler() && getCallsUnderCatchBlock(bb) != null) return true;
+        }
+        return false;
+    }
+
     private boolean hasGetCurrentTask() {
         MethodFlow mf = methodFlow;
         for (BasicBlock bb : mf.getBasicBlocks()) {
@@ -358,6 +384,9 @@ public class MethodWeaver {
      *     aload lastVar
      *     dup
      *     astore fiberVar 
+     *     dup                        ;; only if there are catch handlers
+     *     invokevirtual fiber.depth  ;; covering pausable calls
+     *     istore depthVar
      *     switch (fiber.pc) { 
      *       default: 0: START 
      *       1: F_PASS_DOWN 
@@ -391,6 +420,13 @@ public class MethodWeaver {
            return; 
         }
 
+        if (hasPausableCatchHandler()) {
+            // Remember the depth of this frame for genException
+            mv.visitInsn(DUP);
+            mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "depth", "()I");
+            mv.visitVarInsn(ISTORE, getDepthVar());
+            ensureMaxVars(getDepthVar() + 1);
+        }
         mv.visitFieldInsn(GETFIELD, FIBER_CLASS, "pc", D_INT);
         // The prelude doesn't need more than two words in the stack.
         // The callweaver gen* methods may need more. 
@@ -458,7 +494,7 @@ public class MethodWeaver {
      * 
      * ; Figure out which pausable method could have caused this.
      * 
-     * switch (fiber.upEx()) {
+     * switch (fiber.upEx(depthVar)) {
      *    0: goto NORMAL_EXCEPTION_HANDLING;
      *    2: goto RESTORE_F
      * }
@@ -475,7 +511,10 @@ public class MethodWeaver {
         bb.startLabel.accept(mv);
         LabelNode resumeLabel = new LabelNode();
         VMType.loadVar(mv, VMType.TOBJECT, getFiberVar());
-        mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "upEx", "()I");
+        VMType.loadVar(mv, VMType.TINT, getDepthVar());
+        mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "upEx", "(I)I");
+        // exception, fiber and depth
+        ensureMaxStack(3);
         // fiber.pc is on stack
         LabelNode[] labels = new LabelNode[cwList.size()];
         int[] keys = new int[cwList.size()];
@@ -508,6 +547,10 @@ public class MethodWeaver {
         return fiberVar; // The first available slot
     }
 
+    int getDepthVar() {
+        return depthVar; // The slot right after fiberVar
+    }
+
     void visitTryCatchBlocks(MethodVisitor mv) {
         MethodFlow mf = methodFlow;
         ArrayList<BasicBlock> bbs = mf.getBasicBlocks();
@@ -0,0 +1,82 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+
+import kilim.Pausable;
+import kilim.PauseReason;
+import kilim.Task;
+
+/**
+ * Common part of the pausable channels: a non-blocking channel, and the tasks
+ * (at most one reader and one writer) waiting for it to become ready. The
+ * tasks must be running on a Scheduler.
+ */
+public abstract class FiberChannel implements PauseReason {
+    final SelectableChannel channel;
+    final SelectorLoop loop;
+
+    /*
+     * Waiting for OP_READ/OP_ACCEPT, and for OP_WRITE/OP_CONNECT respectively
+     */
+    private volatile Task reader;
+    private volatile Task writer;
+
+    FiberChannel(SelectableChannel ch, SelectorLoop loop) throws IOException {
+        ch.configureBlocking(false);
+        this.channel = ch;
+        this.loop = loop;
+    }
+
+    /**
+     * Pause the current task until the selector reports the channel ready for
+     * the given operation. The caller retries the operation afterwards.
+     */
+    void await(int op) throws Pausable {
+        Task t = Task.getCurrentTask();
+        if (op == SelectionKey.OP_READ || op == SelectionKey.OP_ACCEPT) {
+            reader = t;
+        } else {
+            writer = t;
+        }
+        loop.register(this, op);
+        Task.pause(this);
+    }
+
+    /**
+     * Called on the selector thread. ops == -1 means the key is gone; wake
+     * everybody so they run into the exception themselves.
+     */
+    void ready(int ops) {
+        if ((ops & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) != 0) {
+            Task t = reader;
+            if (t != null) {
+                reader = null;
+                t.resume();
+            }
+        }
+        if ((ops & (SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT)) != 0) {
+            Task t = writer;
+            if (t != null) {
+                writer = null;
+                t.resume();
+            }
+        }
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public void close() throws IOException {
+        channel.close();
+        ready(-1);
+    }
+}
@@ -0,0 +1,136 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+
+import kilim.Pausable;
+import kilim.PauseReason;
+import kilim.Task;
+
+/**
+ * A file whose positional reads and writes pause the calling task instead of
+ * blocking its thread. Every operation is handed to an
+ * AsynchronousFileChannel, and the task is resumed from its completion
+ * handler, so it must be running on a Scheduler.
+ * 
+ * If a task is cancelled while an operation is pending, the operation still
+ * runs to the end and may still fill (or drain) the buffer afterwards.
+ * 
+ * @see LineReader
+ */
+public class FiberFile implements Closeable {
+    final AsynchronousFileChannel ch;
+
+    public FiberFile(AsynchronousFileChannel ch) {
+        this.ch = ch;
+    }
+
+    public static FiberFile open(Path path, OpenOption... options) throws IOException {
+        return new FiberFile(AsynchronousFileChannel.open(path, options));
+    }
+
+    /**
+     * Read bytes from the given position of the file into the buffer.
+     * 
+     * @return the number of bytes read, or -1 if pos is at or past the end
+     */
+    public int read(ByteBuffer buf, long pos) throws IOException, Pausable {
+        Op op = new Op(Task.getCurrentTask());
+        ch.read(buf, pos, null, op);
+        return op.await();
+    }
+
+    /**
+     * Write the whole buffer at the given position of the file.
+     * 
+     * @return the number of bytes written
+     */
+    public int write(ByteBuffer buf, long pos) throws IOException, Pausable {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            Op op = new Op(Task.getCurrentTask());
+            ch.write(buf, pos + total, null, op);
+            total += op.await();
+        }
+        return total;
+    }
+
+    public long size() throws IOException {
+        return ch.size();
+    }
+
+    public void force(boolean metaData) throws IOException {
+        ch.force(metaData);
+    }
+
+    public boolean isOpen() {
+        return ch.isOpen();
+    }
+
+    public void close() throws IOException {
+        ch.close();
+    }
+
+    public AsynchronousFileChannel getChannel() {
+        return ch;
+    }
+
+    /*
+     * A pending read or write, and the pause reason of the task waiting for
+     * it.
+     */
+    static final class Op implements CompletionHandler<Integer, Object>, PauseReason {
+        private final Task task;
+        private int result;
+        private Throwable failure;
+        private volatile boolean done;
+
+        Op(Task task) {
+            this.task = task;
+        }
+
+        public void completed(Integer n, Object attachment) {
+            result = n;
+            done = true;
+            task.resume();
+        }
+
+        public void failed(Throwable th, Object attachment) {
+            failure = th;
+            done = true;
+            task.resume();
+        }
+
+        int await() throws IOException, Pausable {
+            while (!done) {
+                Task.pause(this);
+            }
+            Throwable th = failure;
+            if (th != null) {
+                if (th instanceof IOException)
+                    throw (IOException) th;
+                if (th instanceof RuntimeException)
+                    throw (RuntimeException) th;
+                if (th instanceof Error)
+                    throw (Error) th;
+                throw new IOException(th);
+            }
+            return result;
+        }
+
+        public String toString() {
+            return "fileOp(" + (done ? "done" : "pending") + ")";
+        }
+    }
+}
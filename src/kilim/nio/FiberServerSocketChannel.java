@@ -0,0 +1,54 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import kilim.Pausable;
+
+/**
+ * A server socket channel whose accept pauses the calling task until a
+ * connection comes in.
+ */
+public class FiberServerSocketChannel extends FiberChannel {
+    final ServerSocketChannel ssc;
+
+    public FiberServerSocketChannel(ServerSocketChannel ssc) throws IOException {
+        this(ssc, SelectorLoop.getDefault());
+    }
+
+    public FiberServerSocketChannel(ServerSocketChannel ssc, SelectorLoop loop) throws IOException {
+        super(ssc, loop);
+        this.ssc = ssc;
+    }
+
+    public static FiberServerSocketChannel open(SocketAddress local) throws IOException {
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+        ssc.socket().bind(local);
+        return new FiberServerSocketChannel(ssc);
+    }
+
+    public FiberSocketChannel accept() throws IOException, Pausable {
+        SocketChannel sc;
+        while ((sc = ssc.accept()) == null) {
+            await(SelectionKey.OP_ACCEPT);
+        }
+        return new FiberSocketChannel(sc, loop);
+    }
+
+    public SocketAddress getLocalAddress() {
+        return ssc.socket().getLocalSocketAddress();
+    }
+
+    public ServerSocketChannel getChannel() {
+        return ssc;
+    }
+}
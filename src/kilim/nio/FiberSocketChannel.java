@@ -0,0 +1,81 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import kilim.Pausable;
+
+/**
+ * A socket channel whose read, write and connect pause the calling task
+ * instead of blocking the thread.
+ */
+public class FiberSocketChannel extends FiberChannel {
+    final SocketChannel sc;
+
+    public FiberSocketChannel(SocketChannel sc) throws IOException {
+        this(sc, SelectorLoop.getDefault());
+    }
+
+    public FiberSocketChannel(SocketChannel sc, SelectorLoop loop) throws IOException {
+        super(sc, loop);
+        this.sc = sc;
+    }
+
+    public static FiberSocketChannel open(SocketAddress remote) throws IOException, Pausable {
+        FiberSocketChannel ch = new FiberSocketChannel(SocketChannel.open());
+        ch.connect(remote);
+        return ch;
+    }
+
+    public void connect(SocketAddress remote) throws IOException, Pausable {
+        if (!sc.connect(remote)) {
+            while (!sc.finishConnect()) {
+                await(SelectionKey.OP_CONNECT);
+            }
+        }
+    }
+
+    /**
+     * Read at least one byte, pausing until some are available.
+     * 
+     * @return the number of bytes read, or -1 at end of stream
+     */
+    public int read(ByteBuffer buf) throws IOException, Pausable {
+        int n;
+        while ((n = sc.read(buf)) == 0 && buf.hasRemaining()) {
+            await(SelectionKey.OP_READ);
+        }
+        return n;
+    }
+
+    /**
+     * Write the whole buffer, pausing whenever the socket's send buffer is
+     * full.
+     * 
+     * @return the number of bytes written
+     */
+    public int write(ByteBuffer buf) throws IOException, Pausable {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = sc.write(buf);
+            if (n == 0) {
+                await(SelectionKey.OP_WRITE);
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    public SocketChannel getChannel() {
+        return sc;
+    }
+}
@@ -0,0 +1,165 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import kilim.Pausable;
+
+/**
+ * Reads a FiberFile a chunk at a time and splits it into records at a
+ * delimiter byte, pausing the task whenever it needs the next chunk. With
+ * the default delimiter these are lines, and a '\r' before the '\n' is
+ * dropped.
+ * 
+ * The delimiter is looked for in the raw bytes, so the charset must be one in
+ * which it cannot be part of another character (UTF-8, ASCII, ISO-8859-*).
+ * 
+ * This is not a Generator: a generator is driven by its consumer's next(),
+ * which cannot pause, so it has no way to wait for the disk.
+ */
+public class LineReader {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final FiberFile file;
+    private final Charset charset;
+    private final byte delimiter;
+    private final ByteBuffer buf;
+
+    /*
+     * File position of the next chunk, and the end of the range (exclusive)
+     */
+    private long pos;
+    private final long end;
+    private boolean eof;
+
+    /*
+     * true until the partial record before the start of the range has been
+     * skipped
+     */
+    private boolean skip;
+
+    /*
+     * The record found by scan(): either a slice of buf, or rec when it
+     * spans chunks
+     */
+    private byte[] rec = new byte[128];
+    private int recLen;
+    private byte[] found;
+    private int foundOff, foundLen;
+
+    public LineReader(FiberFile file) {
+        this(file, StandardCharsets.UTF_8, (byte) '\n', 0, Long.MAX_VALUE, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Read the records that start between from (inclusive) and to
+     * (exclusive). The last one is read to its end even if that is past to,
+     * so readers of adjacent ranges together see every record once.
+     */
+    public LineReader(FiberFile file, Charset charset, byte delimiter, long from, long to, int bufferSize) {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("Illegal bufferSize: " + bufferSize);
+        this.file = file;
+        this.charset = charset;
+        this.delimiter = delimiter;
+        this.buf = ByteBuffer.allocate(bufferSize);
+        this.buf.limit(0);
+        // a record starts at from if the byte before it is a delimiter
+        this.skip = from > 0;
+        this.pos = skip ? from - 1 : 0;
+        this.end = to;
+    }
+
+    /**
+     * @return the next record without its delimiter, or null at the end of
+     *         the file (or range)
+     */
+    public String readLine() throws IOException, Pausable {
+        if (skip) {
+            skip = false;
+            if (!scan())
+                return null;
+        }
+        if (pos - buf.remaining() >= end || !scan())
+            return null;
+        byte[] a = found;
+        int len = foundLen;
+        if (delimiter == '\n' && len > 0 && a[foundOff + len - 1] == '\r') {
+            len--;
+        }
+        return new String(a, foundOff, len, charset);
+    }
+
+    /*
+     * Find the next record, reading more of the file as needed.
+     * 
+     * @return false at the end of the file
+     */
+    private boolean scan() throws IOException, Pausable {
+        recLen = 0;
+        boolean any = false;
+        for (;;) {
+            byte[] a = buf.array();
+            int p = buf.position();
+            int limit = buf.limit();
+            for (int i = p; i < limit; i++) {
+                if (a[i] == delimiter) {
+                    buf.position(i + 1);
+                    if (recLen == 0) {
+                        found(a, p, i - p);
+                    } else {
+                        append(a, p, i - p);
+                        found(rec, 0, recLen);
+                    }
+                    return true;
+                }
+            }
+            if (limit > p) {
+                append(a, p, limit - p);
+                any = true;
+            }
+            buf.position(limit);
+            if (!fill()) {
+                found(rec, 0, recLen);
+                return any;
+            }
+        }
+    }
+
+    private void found(byte[] a, int off, int len) {
+        found = a;
+        foundOff = off;
+        foundLen = len;
+    }
+
+    private boolean fill() throws IOException, Pausable {
+        if (eof)
+            return false;
+        buf.clear();
+        int n = file.read(buf, pos);
+        buf.flip();
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        pos += n;
+        return true;
+    }
+
+    private void append(byte[] a, int off, int len) {
+        if (recLen + len > rec.length) {
+            rec = Arrays.copyOf(rec, Math.max(rec.length * 2, recLen + len));
+        }
+        System.arraycopy(a, off, rec, recLen, len);
+        recLen += len;
+    }
+}
@@ -0,0 +1,133 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import kilim.KilimException;
+
+/**
+ * A thread that runs a Selector on behalf of paused tasks. A task that finds
+ * its channel not ready registers its interest here and pauses; when the
+ * selector reports the channel ready, the interest is dropped again and the
+ * task is resumed. Interest ops are only ever touched by the loop's own
+ * thread; other threads queue their requests and wake the selector up.
+ */
+public class SelectorLoop implements Runnable {
+    private static SelectorLoop defaultLoop;
+
+    final Selector selector;
+    private final Thread thread;
+    private volatile boolean shutdown = false;
+
+    private final ConcurrentLinkedQueue<Interest> requests = new ConcurrentLinkedQueue<Interest>();
+
+    /*
+     * Set once a wakeup has been issued for the current select(), so that
+     * concurrent requests don't all pay for the wakeup syscall.
+     */
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+    static final class Interest {
+        final FiberChannel channel;
+        final int ops;
+
+        Interest(FiberChannel channel, int ops) {
+            this.channel = channel;
+            this.ops = ops;
+        }
+    }
+
+    public SelectorLoop() throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, "KilimSelector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static synchronized SelectorLoop getDefault() {
+        if (defaultLoop == null) {
+            try {
+                defaultLoop = new SelectorLoop();
+            } catch (IOException e) {
+                throw new KilimException("Could not open selector: " + e);
+            }
+        }
+        return defaultLoop;
+    }
+
+    void register(FiberChannel channel, int ops) {
+        requests.offer(new Interest(channel, ops));
+        if (wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+
+    public void run() {
+        try {
+            while (!shutdown) {
+                wakenUp.set(false);
+                addInterests();
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    FiberChannel ch = (FiberChannel) key.attachment();
+                    int ready;
+                    try {
+                        ready = key.readyOps();
+                        key.interestOps(key.interestOps() & ~ready);
+                    } catch (CancelledKeyException e) {
+                        ready = -1;
+                    }
+                    try {
+                        ch.ready(ready);
+                    } catch (Throwable th) {
+                        th.printStackTrace();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Selector loop terminated: " + e);
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void addInterests() {
+        Interest in;
+        while ((in = requests.poll()) != null) {
+            FiberChannel ch = in.channel;
+            try {
+                SelectionKey key = ch.channel.keyFor(selector);
+                if (key == null) {
+                    ch.channel.register(selector, in.ops, ch);
+                } else {
+                    key.interestOps(key.interestOps() | in.ops);
+                }
+            } catch (Exception e) {
+                // closed channel; let the waiter find out for itself
+                ch.ready(-1);
+            }
+        }
+    }
+}
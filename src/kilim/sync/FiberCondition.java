@@ -0,0 +1,99 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.sync;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import kilim.Pausable;
+import kilim.PauseReason;
+import kilim.Task;
+
+/**
+ * A condition variable bound to a FiberMutex, see FiberMutex.newCondition().
+ * As with Object.wait(), the condition waited for must be checked in a loop.
+ */
+public class FiberCondition {
+    private final FiberMutex mutex;
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
+    static final class Waiter implements PauseReason {
+        final Task task;
+        volatile boolean signalled;
+
+        Waiter(Task task) {
+            this.task = task;
+        }
+
+        public String toString() {
+            return "condition(" + (signalled ? "signalled" : "waiting") + ")";
+        }
+    }
+
+    FiberCondition(FiberMutex mutex) {
+        this.mutex = mutex;
+    }
+
+    /**
+     * Let go of the mutex, pause until signalled, and take the mutex back.
+     * A cancelled task does not pause any more, so if it is cancelled while
+     * waiting, it takes the mutex back only if that can be done at once
+     * (see FiberMutex.unlock()); a signal it was given goes to the next task.
+     * 
+     * @throws IllegalMonitorStateException
+     *             if the current task does not hold the mutex
+     */
+    public void await() throws Pausable {
+        Task t = Task.getCurrentTask();
+        Waiter w = new Waiter(t);
+        waiters.offer(w);
+        int holds;
+        try {
+            holds = mutex.release(t);
+        } catch (IllegalMonitorStateException e) {
+            waiters.remove(w);
+            throw e;
+        }
+        boolean relocked = false;
+        try {
+            while (!w.signalled) {
+                Task.pause(w);
+            }
+            mutex.relock(t, holds);
+            relocked = true;
+        } finally {
+            if (!relocked) {
+                if (!waiters.remove(w) && w.signalled) {
+                    signal();
+                }
+                mutex.tryRelock(t, holds);
+            }
+        }
+    }
+
+    /**
+     * Resume the task that has waited longest, if any. Should be called with
+     * the mutex held.
+     */
+    public void signal() {
+        Waiter w;
+        while ((w = waiters.poll()) != null) {
+            if (!w.task.isDone()) {
+                w.signalled = true;
+                w.task.resume();
+                return;
+            }
+        }
+    }
+
+    public void signalAll() {
+        Waiter w;
+        while ((w = waiters.poll()) != null) {
+            w.signalled = true;
+            w.task.resume();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.sync;
+
+import kilim.Pausable;
+
+/**
+ * The task counterpart of java.util.concurrent.CountDownLatch. await() pauses
+ * the task until the count reaches zero. When it does, the first waiting task
+ * is resumed, and each one resumes the next on its way out.
+ */
+public class FiberCountDownLatch extends QueuedSync {
+    public FiberCountDownLatch(int count) {
+        super(count);
+        if (count < 0)
+            throw new IllegalArgumentException("Negative count: " + count);
+    }
+
+    boolean tryAcquire(int arg) {
+        return getState() == 0;
+    }
+
+    boolean propagate() {
+        return true;
+    }
+
+    public void await() throws Pausable {
+        acquire(0, false);
+    }
+
+    /**
+     * May be called from any thread.
+     */
+    public void countDown() {
+        for (;;) {
+            int c = getState();
+            if (c == 0)
+                return;
+            if (compareAndSetState(c, c - 1)) {
+                if (c == 1) {
+                    wakeHead();
+                }
+                return;
+            }
+        }
+    }
+
+    public int getCount() {
+        return getState();
+    }
+
+    public String toString() {
+        return "latch(count = " + getState() + ", " + getQueueLength() + " waiting)";
+    }
+}
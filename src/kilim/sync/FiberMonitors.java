@@ -0,0 +1,69 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.sync;
+
+import kilim.Pausable;
+
+/**
+ * The locks that synchronized blocks and methods in pausable code are woven
+ * into when the weaver runs with -m (see ClassWeaver.fiberMonitors). The
+ * monitor object is mapped onto one of a fixed number of reentrant
+ * FiberMutexes by its identity hash, so a task may pause while it "holds" the
+ * monitor without pinning its carrier thread, and memory does not grow with
+ * the number of objects locked.
+ * 
+ * Caveats: these locks do not exclude code that takes the real monitor of the
+ * same object (unwoven code, or non-pausable methods), Object.wait() and
+ * notify() do not work on them, and two objects sharing a stripe share a lock,
+ * so nested locking of unrelated objects may deadlock where the real monitors
+ * would not. The number of stripes is taken from the system property
+ * "kilim.sync.FiberMonitors.stripes" (rounded up to a power of two), and
+ * defaults to 256.
+ */
+public final class FiberMonitors {
+    public static final String STRIPES_PROP = "kilim.sync.FiberMonitors.stripes";
+
+    private static final FiberMutex[] stripes;
+    private static final int mask;
+
+    static {
+        int n = Math.max(Integer.getInteger(STRIPES_PROP, 256), 1);
+        int size = 1;
+        while (size < n && size < (1 << 16))
+            size <<= 1;
+        stripes = new FiberMutex[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new FiberMutex();
+        }
+        mask = size - 1;
+    }
+
+    private FiberMonitors() {
+    }
+
+    static FiberMutex stripe(Object monitor) {
+        if (monitor == null)
+            throw new NullPointerException("Null monitor");
+        int h = System.identityHashCode(monitor);
+        // spread the higher bits, identity hashes are not always well mixed
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * Woven in place of MONITORENTER.
+     */
+    public static void enter(Object monitor) throws Pausable {
+        stripe(monitor).lock();
+    }
+
+    /**
+     * Woven in place of MONITOREXIT.
+     */
+    public static void exit(Object monitor) {
+        stripe(monitor).unlock();
+    }
+}
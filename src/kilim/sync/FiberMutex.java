@@ -0,0 +1,146 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.sync;
+
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * A reentrant mutual exclusion lock for tasks. lock() pauses the task instead
+ * of blocking the carrier thread, so pausable code may run while the lock is
+ * held, which a synchronized block does not allow.
+ * 
+ * Like an unfair ReentrantLock, a task that finds the mutex free takes it
+ * even if others are queued; queued tasks get it in FIFO order.
+ * 
+ * <pre>
+ * mutex.lock();
+ * try {
+ *     ...
+ * } finally {
+ *     mutex.unlock();
+ * }
+ * </pre>
+ */
+public class FiberMutex extends QueuedSync {
+    /*
+     * Only touched by the owner
+     */
+    private Task owner;
+    private int holds;
+
+    public FiberMutex() {
+        super(0);
+    }
+
+    boolean tryAcquire(int arg) {
+        return compareAndSetState(0, 1);
+    }
+
+    public void lock() throws Pausable {
+        Task t = Task.getCurrentTask();
+        if (owner == t) {
+            holds++;
+            return;
+        }
+        // fast path, without the (woven) call into acquire()
+        if (!compareAndSetState(0, 1)) {
+            acquire(1, false);
+        }
+        owner = t;
+        holds = 1;
+    }
+
+    /**
+     * Take the mutex if it is free, without pausing. Not reentrant: fails if
+     * the mutex is held, even by the current task.
+     */
+    public boolean tryLock() throws Pausable {
+        if (!tryAcquire(1))
+            return false;
+        owner = Task.getCurrentTask();
+        holds = 1;
+        return true;
+    }
+
+    /**
+     * To be called by the task holding the mutex. A task cancelled out of
+     * FiberCondition.await() may not have got the mutex back; its unlock() is
+     * a no-op, so as not to hide the TaskCancelledException.
+     * 
+     * @throws IllegalMonitorStateException
+     *             if the mutex is not held by the calling task. Only the
+     *             state is checked when the caller is not known to be a task
+     *             (see Task.runningTask()).
+     */
+    public void unlock() {
+        Task t = Task.runningTask();
+        if (getState() == 0 || (t != null && owner != t)) {
+            if (t != null && t.isCancelled())
+                return;
+            throw new IllegalMonitorStateException(getState() == 0 ? "FiberMutex is not locked"
+                    : "FiberMutex is not held by task " + t.id);
+        }
+        exit();
+    }
+
+    private void exit() {
+        if (--holds > 0)
+            return;
+        owner = null;
+        setState(0);
+        wakeHead();
+    }
+
+    public boolean isLocked() {
+        return getState() != 0;
+    }
+
+    public boolean isHeldBy(Task t) {
+        return getState() != 0 && owner == t;
+    }
+
+    public FiberCondition newCondition() {
+        return new FiberCondition(this);
+    }
+
+    /*
+     * Let go of the mutex completely, for FiberCondition.await().
+     * 
+     * @return the hold count, to be handed back to relock()
+     */
+    int release(Task t) {
+        if (getState() == 0 || owner != t)
+            throw new IllegalMonitorStateException("FiberMutex is not held by task " + t.id);
+        int h = holds;
+        holds = 1;
+        exit();
+        return h;
+    }
+
+    void relock(Task t, int h) throws Pausable {
+        acquire(1, false);
+        owner = t;
+        holds = h;
+    }
+
+    /*
+     * relock() for a task that may not pause any more
+     */
+    boolean tryRelock(Task t, int h) {
+        if (!tryAcquire(1))
+            return false;
+        owner = t;
+        holds = h;
+        return true;
+    }
+
+    public String toString() {
+        Task o = owner;
+        return "mutex(" + (o == null ? "unlocked" : "held by " + o.id) + ", " + getQueueLength() + " waiting)";
+    }
+}
@@ -0,0 +1,78 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.sync;
+
+import kilim.Pausable;
+
+/**
+ * A read-write lock for tasks: any number of readers, or one writer. The
+ * state is the number of readers, or -1 while the writer has it. Readers do
+ * not barge past queued writers, so writers are not starved. Not reentrant.
+ */
+public class FiberReadWriteLock extends QueuedSync {
+    private static final int READ  = 1;
+    private static final int WRITE = 2;
+
+    public FiberReadWriteLock() {
+        super(0);
+    }
+
+    boolean tryAcquire(int mode) {
+        if (mode == WRITE)
+            return compareAndSetState(0, -1);
+        for (;;) {
+            int s = getState();
+            if (s < 0)
+                return false;
+            if (compareAndSetState(s, s + 1))
+                return true;
+        }
+    }
+
+    /*
+     * A reader just got in; the next in line may be a reader too.
+     */
+    boolean propagate() {
+        return getState() > 0 && hasQueuedTasks();
+    }
+
+    public void lockRead() throws Pausable {
+        acquire(READ, true);
+    }
+
+    public void unlockRead() {
+        int s = getState();
+        if (s <= 0)
+            throw new IllegalMonitorStateException("FiberReadWriteLock is not read locked");
+        if (addAndGetState(-1) == 0) {
+            wakeHead();
+        }
+    }
+
+    public void lockWrite() throws Pausable {
+        acquire(WRITE, false);
+    }
+
+    public void unlockWrite() {
+        if (!compareAndSetState(-1, 0))
+            throw new IllegalMonitorStateException("FiberReadWriteLock is not write locked");
+        wakeHead();
+    }
+
+    public int getReadLockCount() {
+        return Math.max(getState(), 0);
+    }
+
+    public boolean isWriteLocked() {
+        return getState() < 0;
+    }
+
+    public String toString() {
+        int s = getState();
+        return "rwlock(" + (s < 0 ? "write locked" : s + " readers") + ", " + getQueueLength() + " waiting)";
+    }
+}
@@ -0,0 +1,73 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.sync;
+
+import kilim.Pausable;
+
+/**
+ * A counting semaphore for tasks. acquire() pauses the task while there are
+ * not enough permits. Waiting tasks are served in FIFO order, so a large
+ * request at the head of the queue holds up smaller ones behind it.
+ */
+public class FiberSemaphore extends QueuedSync {
+    public FiberSemaphore(int permits) {
+        super(permits);
+    }
+
+    boolean tryAcquire(int n) {
+        for (;;) {
+            int s = getState();
+            if (s < n)
+                return false;
+            if (compareAndSetState(s, s - n))
+                return true;
+        }
+    }
+
+    boolean propagate() {
+        return getState() > 0 && hasQueuedTasks();
+    }
+
+    public void acquire() throws Pausable {
+        acquire(1, true);
+    }
+
+    public void acquire(int permits) throws Pausable {
+        if (permits < 0)
+            throw new IllegalArgumentException("Negative permits: " + permits);
+        acquire(permits, true);
+    }
+
+    /**
+     * Take permits if there are enough, without pausing. Ignores the queue.
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * May be called from any thread.
+     */
+    public void release() {
+        release(1);
+    }
+
+    public void release(int permits) {
+        if (permits < 0)
+            throw new IllegalArgumentException("Negative permits: " + permits);
+        addAndGetState(permits);
+        wakeHead();
+    }
+
+    public int availablePermits() {
+        return getState();
+    }
+
+    public String toString() {
+        return "semaphore(permits = " + getState() + ", " + getQueueLength() + " waiting)";
+    }
+}
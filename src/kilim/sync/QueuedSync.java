@@ -0,0 +1,132 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license
+ * specified in the file "License"
+ */
+
+package kilim.sync;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import kilim.Pausable;
+import kilim.PauseReason;
+import kilim.Task;
+
+/**
+ * The common part of the pausable synchronizers: an int state changed by CAS,
+ * and a FIFO queue of the tasks waiting to acquire it. An acquire that goes
+ * through at once is a single CAS. Otherwise the task queues up and pauses,
+ * and only the task at the head of the queue is resumed to try again; a
+ * release resumes that one task and no other.
+ */
+abstract class QueuedSync {
+    private volatile int state;
+    private static final AtomicIntegerFieldUpdater<QueuedSync> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(QueuedSync.class, "state");
+
+    private final ConcurrentLinkedQueue<Waiter> queue = new ConcurrentLinkedQueue<Waiter>();
+
+    static final class Waiter implements PauseReason {
+        final Task task;
+
+        Waiter(Task task) {
+            this.task = task;
+        }
+
+        public String toString() {
+            return "waiting for " + task.id;
+        }
+    }
+
+    QueuedSync(int state) {
+        this.state = state;
+    }
+
+    final int getState() {
+        return state;
+    }
+
+    final void setState(int s) {
+        state = s;
+    }
+
+    final boolean compareAndSetState(int expect, int update) {
+        return stateUpdater.compareAndSet(this, expect, update);
+    }
+
+    final int addAndGetState(int delta) {
+        return stateUpdater.addAndGet(this, delta);
+    }
+
+    abstract boolean tryAcquire(int arg);
+
+    /*
+     * Whether the next task in line may be able to acquire as well, once the
+     * head has. Only shared modes say yes.
+     */
+    boolean propagate() {
+        return false;
+    }
+
+    /**
+     * @param fair
+     *            queue up behind waiting tasks even if the state could be
+     *            acquired right away
+     */
+    final void acquire(int arg, boolean fair) throws Pausable {
+        if ((!fair || queue.isEmpty()) && tryAcquire(arg))
+            return;
+        Waiter w = new Waiter(Task.getCurrentTask());
+        queue.offer(w);
+        boolean acquired = false;
+        try {
+            // a release that slips in between the check and the pause finds
+            // us at the head and resumes us; the resume is not lost
+            while (queue.peek() != w || !tryAcquire(arg)) {
+                Task.pause(w);
+            }
+            acquired = true;
+        } finally {
+            if (!acquired) {
+                // cancelled while queued. If we were at the head, a release
+                // may have resumed us in vain; hand the wake-up on
+                boolean head = queue.peek() == w;
+                queue.remove(w);
+                if (head) {
+                    wakeHead();
+                }
+            }
+        }
+        queue.poll();
+        if (propagate()) {
+            wakeHead();
+        }
+    }
+
+    /*
+     * Resume the first task in line. Tasks that were cancelled while waiting
+     * will never run again; they are dropped.
+     */
+    final void wakeHead() {
+        Waiter h;
+        while ((h = queue.peek()) != null) {
+            if (!h.task.isDone()) {
+                h.task.resume();
+                return;
+            }
+            queue.remove(h);
+        }
+    }
+
+    final boolean hasQueuedTasks() {
+        return !queue.isEmpty();
+    }
+
+    /**
+     * @return the number of tasks waiting to acquire; an estimate, as it may
+     *         change while the queue is counted
+     */
+    public final int getQueueLength() {
+        return queue.size();
+    }
+}
@@ -298,6 +298,8 @@ public class Weaver {
         System.err.println("   where opts are   -q : quiet");
         System.err.println("                    -x <regex> : exclude all classes matching regex");
         System.err.println("                    -i <regex> : include all classes matching regex");
+        System.err.println("                    -r : reuse state objects across repeated pauses");
+        System.err.println("                    -m : turn synchronized in pausable methods into fiber locks");
         System.exit(1);
     }
 
@@ -316,6 +318,10 @@ public class Weaver {
                 verbose = false;
             } else if (arg.equals("-h")) {
                 help();
+            } else if (arg.equals("-r")) {
+                ClassWeaver.reuseStates = true;
+            } else if (arg.equals("-m")) {
+                ClassWeaver.fiberMonitors = true;
             } else if (arg.equals("-x")) {
                 regex = args[++i];
                 excludePattern = Pattern.compile(regex);
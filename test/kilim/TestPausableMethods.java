@@ -0,0 +1,66 @@
+package kilim;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import kilim.test.ex.ExPausableMethods;
+
+/**
+ * The table of pausable methods and their lines that the weaver leaves in
+ * woven classes, and PausableMethods reading it back (hence in package kilim)
+ */
+public class TestPausableMethods extends TestCase {
+
+    public void testTable() throws Exception {
+        ExPausableMethods t = runTask();
+        String table = (String) ExPausableMethods.class.getField(Constants.PAUSABLE_METHODS_FIELD).get(null);
+        Map<String, int[]> ranges = new HashMap<String, int[]>();
+        for (String entry : table.split(";")) {
+            String[] nr = entry.split("[:-]");
+            // a method of each name here, so no name shows up twice
+            assertNull(entry, ranges.put(nr[0], new int[] { Integer.parseInt(nr[1]), Integer.parseInt(nr[2]) }));
+        }
+        assertTrue(table, ranges.containsKey("execute"));
+        // only the pausable run() is listed, and its lines tell it apart
+        // from the other one
+        int[] run = ranges.get("run");
+        assertTrue(table, run[0] <= t.pausableLine && t.pausableLine <= run[1]);
+        assertFalse(table, run[0] <= t.plainLine && t.plainLine <= run[1]);
+        int[] other = ranges.get("other");
+        assertTrue(table, other[0] <= t.otherLine && t.otherLine <= other[1]);
+        assertFalse(table, ranges.containsKey("line"));
+    }
+
+    public void testLookup() throws Exception {
+        ExPausableMethods t = runTask();
+        Class<?> cls = ExPausableMethods.class;
+        // overloads told apart by line
+        assertEquals(Boolean.TRUE, PausableMethods.isPausable(cls, frame(cls, "run", t.pausableLine)));
+        assertEquals(Boolean.FALSE, PausableMethods.isPausable(cls, frame(cls, "run", t.plainLine)));
+        // no line number: any method of a pausable name
+        assertEquals(Boolean.TRUE, PausableMethods.isPausable(cls, frame(cls, "run", -1)));
+        assertEquals(Boolean.FALSE, PausableMethods.isPausable(cls, frame(cls, "line", t.otherLine)));
+        assertEquals(Boolean.FALSE, PausableMethods.isPausable(cls, frame(cls, "nosuch", t.otherLine)));
+    }
+
+    public void testNoTable() throws Exception {
+        ExPausableMethods t = runTask();
+        // not woven itself, the superclass's table does not count
+        Class<?> sub = ExPausableMethods.Plain.class;
+        assertNull(PausableMethods.isPausable(sub, frame(sub, "run", t.pausableLine)));
+        assertNull(PausableMethods.isPausable(String.class, frame(String.class, "length", 1)));
+    }
+
+    private static ExPausableMethods runTask() {
+        ExPausableMethods t = new ExPausableMethods();
+        while (!t.isDone()) {
+            t._runExecute();
+        }
+        return t;
+    }
+
+    private static StackTraceElement frame(Class<?> cls, String method, int line) {
+        return new StackTraceElement(cls.getName(), method, cls.getSimpleName() + ".java", line);
+    }
+}
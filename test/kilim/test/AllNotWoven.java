@@ -21,6 +21,8 @@ public class AllNotWoven extends TestSuite {
         ret.addTestSuite(TestFlow.class);
         ret.addTestSuite(TestExprs.class);
         ret.addTestSuite(TestClassInfo.class);
+        ret.addTestSuite(TestReuseStates.class);
+        ret.addTestSuite(TestFiberMonitors.class);
 //        ret.addTestSuite(TestDynamicWeaver.class);
         return ret;
     }
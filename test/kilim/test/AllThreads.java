@@ -0,0 +1,39 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license 
+ * specified in the file "License"
+ */
+
+package kilim.test;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * The task tests that do not depend on fibers, run unwoven on the thread
+ * backend (-Dkilim.Task.backend=thread, see the "testthreads" target).
+ */
+public class AllThreads extends TestSuite {
+    public static Test suite() {
+        TestSuite ret = new AllThreads();
+        ret.addTestSuite(TestMailbox.class);
+        ret.addTestSuite(TestTimer.class);
+        ret.addTestSuite(TestNio.class);
+        ret.addTestSuite(TestTaskPool.class);
+        ret.addTestSuite(TestPrimitiveGenerators.class);
+        ret.addTestSuite(TestGeneratorBatch.class);
+        ret.addTestSuite(TestGeneratorStream.class);
+        ret.addTestSuite(TestGeneratorPrefetch.class);
+        ret.addTestSuite(TestPipeline.class);
+        ret.addTestSuite(TestAwait.class);
+        ret.addTestSuite(TestFiberLocal.class);
+        ret.addTestSuite(TestSpawn.class);
+        ret.addTestSuite(TestChannel.class);
+        ret.addTestSuite(TestSync.class);
+        ret.addTestSuite(TestBlockingPool.class);
+        ret.addTestSuite(TestFiberFile.class);
+        ret.addTestSuite(TestScheduler.class);
+        ret.addTestSuite(TestThreadBackend.class);
+        return ret;
+    }
+}
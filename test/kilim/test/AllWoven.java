@@ -2,6 +2,7 @@ package kilim.test;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import kilim.TestPausableMethods;
 
 /**
  * 
@@ -12,6 +13,27 @@ public class AllWoven extends TestSuite {
     public static Test suite() {
         TestSuite ret = new AllWoven();
         ret.addTestSuite(TestBasicWeave.class);
+        ret.addTestSuite(TestCatch.class);
+        ret.addTestSuite(TestScheduler.class);
+        ret.addTestSuite(TestMailbox.class);
+        ret.addTestSuite(TestTimer.class);
+        ret.addTestSuite(TestNio.class);
+        ret.addTestSuite(TestTaskPool.class);
+        ret.addTestSuite(TestInvoke.class);
+        ret.addTestSuite(TestPrimitiveGenerators.class);
+        ret.addTestSuite(TestGeneratorBatch.class);
+        ret.addTestSuite(TestGeneratorStream.class);
+        ret.addTestSuite(TestGeneratorPrefetch.class);
+        ret.addTestSuite(TestPipeline.class);
+        ret.addTestSuite(TestAwait.class);
+        ret.addTestSuite(TestFiberLocal.class);
+        ret.addTestSuite(TestSpawn.class);
+        ret.addTestSuite(TestChannel.class);
+        ret.addTestSuite(TestSync.class);
+        ret.addTestSuite(TestCancel.class);
+        ret.addTestSuite(TestBlockingPool.class);
+        ret.addTestSuite(TestFiberFile.class);
+        ret.addTestSuite(TestPausableMethods.class);
         return ret;
     }
 }
@@ -0,0 +1,33 @@
+package kilim.test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.test.ex.ExAwaitTask;
+
+/**
+ * Task.await(), awaitAll() and awaitAny()
+ */
+public class TestAwait extends TestCase {
+
+    public void testAwait() throws Exception {
+        Scheduler s = new Scheduler(2);
+        try {
+            ExAwaitTask t = new ExAwaitTask();
+            t.start(s);
+            // in a fixed order, whether or not the task has got to each
+            // await() yet; the trace is the same either way
+            t.a.complete("a");
+            t.c.complete("c");
+            t.b.complete("b");
+            t.d.complete("d");
+            t.e.completeExceptionally(new IllegalStateException("e"));
+            assertTrue(t.done.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("now", "a", "a!", "bc", "d", "failed e"), t.trace);
+        } finally {
+            s.shutdown();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package kilim.test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import kilim.BlockingPool;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.TaskCancelledException;
+import kilim.test.ex.ExBlockingTasks;
+
+/**
+ * Task.runBlocking() and BlockingPool
+ */
+public class TestBlockingPool extends TestCase {
+    Scheduler scheduler;
+
+    protected void setUp() throws Exception {
+        // a single worker, which blocking calls must not hold up
+        scheduler = new Scheduler(1);
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    public void testResultAndException() throws Exception {
+        BlockingPool pool = new BlockingPool(2, 0);
+        CountDownLatch gate = new CountDownLatch(0);
+        ExBlockingTasks.Caller ok = new ExBlockingTasks.Caller(pool, gate, "hello");
+        ExBlockingTasks.Caller bad = new ExBlockingTasks.Caller(pool, gate, null);
+        ok.start(scheduler);
+        bad.start(scheduler);
+        assertTrue(ok.done.await(10, TimeUnit.SECONDS));
+        assertTrue(bad.done.await(10, TimeUnit.SECONDS));
+        assertEquals("hello", ok.result);
+        assertNull(ok.failure);
+        assertTrue(ok.thread.startsWith("KilimBlocking-"));
+        assertTrue(bad.failure instanceof IOException);
+        assertEquals(0, pool.getInFlightCount());
+        pool.shutdown();
+    }
+
+    public void testBackpressure() throws Exception {
+        BlockingPool pool = new BlockingPool(1, 1);
+        CountDownLatch gate = new CountDownLatch(1);
+        ExBlockingTasks.Caller[] callers = new ExBlockingTasks.Caller[4];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = new ExBlockingTasks.Caller(pool, gate, "r" + i);
+            callers[i].start(scheduler);
+        }
+        for (int i = 0; i < 1000 && pool.getWaitingCount() < 2; i++) {
+            Thread.sleep(10);
+        }
+        // one running, one queued, the other two paused; the worker is free
+        assertTrue(pool.isSaturated());
+        assertEquals(2, pool.getInFlightCount());
+        assertEquals(2, pool.getWaitingCount());
+        assertTrue(pool.getSaturatedCount() >= 2);
+        ExBlockingTasks.DefaultCaller other = new ExBlockingTasks.DefaultCaller();
+        other.start(scheduler);
+        assertTrue(other.done.await(10, TimeUnit.SECONDS));
+        assertEquals(42, other.result);
+
+        gate.countDown();
+        for (int i = 0; i < callers.length; i++) {
+            assertTrue(callers[i].done.await(10, TimeUnit.SECONDS));
+            assertEquals("r" + i, callers[i].result);
+        }
+        assertFalse(pool.isSaturated());
+        assertEquals(0, pool.getWaitingCount());
+        pool.shutdown();
+    }
+
+    /*
+     * The first waiter is resumed by the finished call but cancelled before
+     * it runs; the room must go to the second.
+     */
+    public void testCancelResumedWaiter() throws Exception {
+        // tasks on the thread backend do not queue up behind the hog
+        if (!Task.backend().equals("fiber")) {
+            return;
+        }
+        BlockingPool pool = new BlockingPool(1, 0);
+        CountDownLatch gate = new CountDownLatch(1), open = new CountDownLatch(0);
+        ExBlockingTasks.Caller running = new ExBlockingTasks.Caller(pool, gate, "r0");
+        ExBlockingTasks.Caller first = new ExBlockingTasks.Caller(pool, open, "r1");
+        ExBlockingTasks.Caller second = new ExBlockingTasks.Caller(pool, open, "r2");
+        running.start(scheduler);
+        first.start(scheduler);
+        second.start(scheduler);
+        for (int i = 0; i < 1000 && pool.getWaitingCount() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, pool.getWaitingCount());
+        ExBlockingTasks.Hog hog = new ExBlockingTasks.Hog();
+        hog.start(scheduler);
+        assertTrue(hog.hogging.await(10, TimeUnit.SECONDS));
+        gate.countDown();
+        for (int i = 0; i < 1000 && pool.getWaitingCount() > 1; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getWaitingCount());
+        first.cancel();
+        hog.release.countDown();
+        assertTrue(running.done.await(10, TimeUnit.SECONDS));
+        assertTrue(first.done.await(10, TimeUnit.SECONDS));
+        assertTrue(second.done.await(10, TimeUnit.SECONDS));
+        assertEquals("r0", running.result);
+        assertTrue(first.failure instanceof TaskCancelledException);
+        assertEquals("r2", second.result);
+        assertEquals(0, pool.getInFlightCount());
+        assertEquals(0, pool.getWaitingCount());
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,131 @@
+package kilim.test;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.TaskCancelledException;
+import kilim.test.ex.ExCancelTasks;
+
+/**
+ * Cooperative cancellation: Task.cancel(), deadlines and checkKill()
+ */
+public class TestCancel extends TestCase {
+    Scheduler scheduler;
+
+    protected void setUp() throws Exception {
+        scheduler = new Scheduler(2);
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    public void testCancelBusyLoop() throws Exception {
+        ExCancelTasks.Spinner s = new ExCancelTasks.Spinner();
+        s.start(scheduler);
+        assertTrue(s.started.await(10, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        assertFalse(s.isDone());
+        assertTrue(s.cancel());
+        waitDone(s);
+        assertTrue(s.exitResult instanceof TaskCancelledException);
+        assertTrue(s.cleanedUp);
+    }
+
+    public void testCancelPaused() throws Exception {
+        ExCancelTasks.Sleeper s = new ExCancelTasks.Sleeper();
+        s.start(scheduler);
+        assertTrue(s.started.await(10, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        assertTrue(s.cancel());
+        waitDone(s);
+        assertTrue(s.exitResult instanceof TaskCancelledException);
+        assertTrue(s.cleanedUp);
+        assertFalse(s.woke);
+    }
+
+    public void testCancelBeforeStart() throws Exception {
+        ExCancelTasks.Sleeper s = new ExCancelTasks.Sleeper();
+        s.cancel();
+        s.start(scheduler);
+        waitDone(s);
+        assertTrue(s.exitResult instanceof TaskCancelledException);
+        // cancelled on the way in, before the try block
+        assertFalse(s.cleanedUp);
+    }
+
+    public void testCancelIsSticky() throws Exception {
+        ExCancelTasks.Stubborn s = new ExCancelTasks.Stubborn();
+        s.start(scheduler);
+        assertTrue(s.started.await(10, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        s.cancel();
+        waitDone(s);
+        assertTrue(s.caught);
+        assertFalse(s.woke);
+        assertTrue(s.exitResult instanceof TaskCancelledException);
+    }
+
+    public void testDeadline() throws Exception {
+        ExCancelTasks.Sleeper s = new ExCancelTasks.Sleeper();
+        s.setDeadline(50);
+        long begin = System.nanoTime();
+        s.start(scheduler);
+        waitDone(s);
+        long elapsed = (System.nanoTime() - begin) / 1000000;
+        assertTrue("elapsed: " + elapsed, elapsed >= 40);
+        assertTrue(s.exitResult instanceof TaskCancelledException);
+        assertTrue(((Throwable) s.exitResult).getMessage().contains("deadline"));
+        assertTrue(s.cleanedUp);
+    }
+
+    public void testDeadlineMet() throws Exception {
+        ExCancelTasks.Spinner s = new ExCancelTasks.Spinner();
+        s.setDeadline(100000);
+        s.start(scheduler);
+        assertTrue(s.started.await(10, TimeUnit.SECONDS));
+        s.cancel();
+        waitDone(s);
+        assertFalse(((Throwable) s.exitResult).getMessage().contains("deadline"));
+    }
+
+    public void testCancelGenerator() throws Exception {
+        ExCancelTasks.Counter c = new ExCancelTasks.Counter();
+        assertEquals(0, (int) c.next());
+        assertEquals(1, (int) c.next());
+        assertTrue(c.cancel());
+        try {
+            c.next();
+            fail("cancelled generator produced a value");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof TaskCancelledException);
+        }
+        assertTrue(c.isDone());
+        assertFalse(c.hasNext());
+    }
+
+    public void testGeneratorDeadline() throws Exception {
+        ExCancelTasks.Counter c = new ExCancelTasks.Counter();
+        c.setDeadline(20);
+        int n = 0;
+        try {
+            while (c.hasNext()) {
+                c.next();
+                n++;
+            }
+            fail("generator ran past its deadline");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof TaskCancelledException);
+        }
+        assertTrue(n > 0);
+    }
+
+    private static void waitDone(Task t) throws InterruptedException {
+        for (int i = 0; i < 1000 && !t.isDone(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(t.isDone());
+    }
+}
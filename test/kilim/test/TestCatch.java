@@ -0,0 +1,26 @@
+package kilim.test;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import kilim.test.ex.ExCatchTask;
+
+/**
+ * exceptions caught across pausable frames
+ */
+public class TestCatch extends TestCase {
+
+    public void testNestedCatch() throws Exception {
+        ExCatchTask t = new ExCatchTask();
+        int runs = 0;
+        while (!t.isDone()) {
+            t.run();
+            runs++;
+        }
+        // each iteration yields in level2, level1's handler and execute's
+        // handler
+        assertEquals(10, runs);
+        assertEquals(Arrays.asList("l1-0 l2-0", "caught from l1-0", "resumed 0", "l1-1 l2-1", "caught from l1-1", "resumed 1", "l1-2 l2-2",
+                "caught from l1-2", "resumed 2"), t.trace);
+    }
+}
@@ -0,0 +1,193 @@
+package kilim.test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+import kilim.Channel;
+import kilim.Scheduler;
+import kilim.Select;
+import kilim.Task;
+import kilim.TaskCancelledException;
+import kilim.test.ex.ExChannelTasks;
+import kilim.test.ex.ExChannelTasks.Canceller;
+import kilim.test.ex.ExChannelTasks.Taker;
+
+/**
+ * rendezvous and buffered channels, and select
+ */
+public class TestChannel extends TestCase {
+    Scheduler scheduler;
+
+    protected void setUp() throws Exception {
+        scheduler = new Scheduler(4);
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    public void testNonPausable() {
+        Channel<String> rv = new Channel<String>();
+        // nobody waiting to receive
+        assertFalse(rv.sendnb("x"));
+        assertNull(rv.recvnb());
+
+        Channel<String> ch = new Channel<String>(2);
+        assertTrue(ch.sendnb("a"));
+        assertTrue(ch.sendnb("b"));
+        assertFalse(ch.sendnb("c"));
+        ch.close();
+        try {
+            ch.sendnb("d");
+            fail("sent on a closed channel");
+        } catch (IllegalStateException e) {
+        }
+        assertEquals("a", ch.recvnb());
+        assertEquals("b", ch.recvnb());
+        assertNull(ch.recvnb());
+
+        Select sel = new Select();
+        Channel<String> in = new Channel<String>(1);
+        int ci = sel.recv(in);
+        assertEquals(Select.TIMEOUT, sel.selectnb());
+        in.sendnb("i");
+        assertEquals(ci, sel.selectnb());
+        assertEquals("i", sel.received());
+    }
+
+    public void testRendezvous() throws Exception {
+        check(new Channel<Integer>());
+    }
+
+    public void testBuffered() throws Exception {
+        check(new Channel<Integer>(3));
+    }
+
+    private void check(Channel<Integer> ch) throws Exception {
+        int numSenders = 8, numReceivers = 4, perSender = 2000;
+        CountDownLatch sent = new CountDownLatch(numSenders);
+        CountDownLatch received = new CountDownLatch(numReceivers);
+        AtomicLong sum = new AtomicLong();
+        for (int r = 0; r < numReceivers; r++) {
+            new ExChannelTasks.Receiver(ch, sum, received).start(scheduler);
+        }
+        long expected = 0;
+        for (int s = 0; s < numSenders; s++) {
+            int from = s * perSender, to = from + perSender;
+            for (int i = from; i < to; i++) {
+                expected += i;
+            }
+            new ExChannelTasks.Sender(ch, from, to, sent).start(scheduler);
+        }
+        assertTrue(sent.await(10, TimeUnit.SECONDS));
+        ch.close();
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        assertEquals(expected, sum.get());
+    }
+
+    public void testSelect() throws Exception {
+        Channel<String> a = new Channel<String>(4);
+        Channel<String> b = new Channel<String>(4);
+        Channel<String> out = new Channel<String>(1);
+        a.sendnb("a0");
+        a.sendnb("a1");
+        b.sendnb("b0");
+        ExChannelTasks.Selector s = new ExChannelTasks.Selector(a, b, out);
+        s.start(scheduler);
+        assertTrue(s.done.await(10, TimeUnit.SECONDS));
+        // ready cases are taken in turns
+        assertEquals(Arrays.asList("a0", "b0", "sent", "a1", "timeout"), s.trace);
+        assertEquals("out", out.recvnb());
+    }
+
+    public void testNoThunderingHerd() throws Exception {
+        int n = 10;
+        Channel<String> ch = new Channel<String>();
+        Channel<String> quit = new Channel<String>();
+        AtomicInteger runs = new AtomicInteger(), received = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            new ExChannelTasks.Waiter(ch, quit, runs, received, latch).start(scheduler);
+        }
+        while (!ch.sendnb("m")) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(20);
+        assertEquals(1, received.get());
+        quit.close();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // one run each to start and one to quit, and one more for the
+        // message; tasks on the thread backend are not run step by step
+        if (Task.backend().equals("fiber")) {
+            assertEquals(2 * n + 1, runs.get());
+        }
+    }
+
+    /*
+     * A receiver cancelled while waiting must not be handed the next message.
+     */
+    public void testCancelBlockedReceiver() throws Exception {
+        for (boolean select : new boolean[] { false, true }) {
+            Channel<String> ch = new Channel<String>();
+            Taker gone = new Taker(ch, select);
+            gone.start(scheduler);
+            waitPaused(gone);
+            gone.cancel();
+            waitDone(gone);
+            assertTrue(gone.exitResult instanceof TaskCancelledException);
+            Taker live = new Taker(ch, false);
+            live.start(scheduler);
+            waitPaused(live);
+            assertTrue(ch.sendnb("m"));
+            waitDone(live);
+            assertEquals("m", live.got);
+        }
+    }
+
+    /*
+     * One worker, so that the message is handed to the first receiver, which
+     * is cancelled before it runs. The message must go to the second one.
+     */
+    public void testCancelClaimedReceiver() throws Exception {
+        // tasks on the thread backend are not run one at a time
+        if (!Task.backend().equals("fiber")) {
+            return;
+        }
+        Scheduler one = new Scheduler(1);
+        try {
+            for (boolean select : new boolean[] { false, true }) {
+                Channel<String> ch = new Channel<String>();
+                Taker first = new Taker(ch, select);
+                Taker second = new Taker(ch, false);
+                first.start(one);
+                second.start(one);
+                new Canceller(ch, first).start(one);
+                waitDone(first);
+                waitDone(second);
+                assertTrue(first.exitResult instanceof TaskCancelledException);
+                assertNull(first.got);
+                assertEquals("m", second.got);
+            }
+        } finally {
+            one.shutdown();
+        }
+    }
+
+    private static void waitPaused(Task t) throws InterruptedException {
+        for (int i = 0; i < 1000 && t.getPauseReason() == null; i++) {
+            Thread.sleep(10);
+        }
+        assertNotNull(t.getPauseReason());
+    }
+
+    private static void waitDone(Task t) throws InterruptedException {
+        for (int i = 0; i < 1000 && !t.isDone(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(t.isDone());
+    }
+}
@@ -0,0 +1,99 @@
+package kilim.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.examples.nio.FileBench;
+import kilim.nio.FiberFile;
+import kilim.nio.LineReader;
+import kilim.test.ex.ExFileTasks;
+
+/**
+ * FiberFile and LineReader
+ */
+public class TestFiberFile extends TestCase {
+    static final String TEXT = "a\r\nbb\n\n\u00fcn\u00ef\ncccccccccc\nlast";
+    static final List<String> LINES = Arrays.asList("a", "bb", "", "\u00fcn\u00ef", "cccccccccc", "last");
+
+    Scheduler scheduler;
+    File file;
+
+    protected void setUp() throws Exception {
+        scheduler = new Scheduler(2);
+        file = File.createTempFile("kilim-test", ".txt");
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+        file.delete();
+    }
+
+    public void testWriteRead() throws Exception {
+        FiberFile ff = FiberFile.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            byte[] data = "hello, fibers".getBytes(StandardCharsets.UTF_8);
+            ExFileTasks.WriteRead t = new ExFileTasks.WriteRead(ff, data, 3);
+            t.start(scheduler);
+            assertTrue(t.done.await(10, TimeUnit.SECONDS));
+            assertNull(t.failure);
+            assertEquals(data.length + 3, t.contents.length);
+            assertEquals("hello, fibers", new String(t.contents, 3, data.length, StandardCharsets.UTF_8));
+            assertEquals(-1, t.eofRead);
+        } finally {
+            ff.close();
+        }
+    }
+
+    public void testLines() throws Exception {
+        Files.write(file.toPath(), TEXT.getBytes(StandardCharsets.UTF_8));
+        FiberFile ff = FiberFile.open(file.toPath());
+        try {
+            // buffers smaller than a line, and larger than the file
+            for (int bufferSize : new int[] { 1, 3, 4096 }) {
+                LineReader r = new LineReader(ff, StandardCharsets.UTF_8, (byte) '\n', 0, Long.MAX_VALUE, bufferSize);
+                assertEquals(LINES, collect(r));
+            }
+        } finally {
+            ff.close();
+        }
+    }
+
+    public void testRanges() throws Exception {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), bytes);
+        FiberFile ff = FiberFile.open(file.toPath());
+        try {
+            // every split point, including those right before and after a
+            // delimiter, hands each line to exactly one of the two readers
+            for (int k = 0; k <= bytes.length; k++) {
+                LineReader first = new LineReader(ff, StandardCharsets.UTF_8, (byte) '\n', 0, k, 2);
+                LineReader second = new LineReader(ff, StandardCharsets.UTF_8, (byte) '\n', k, bytes.length, 2);
+                assertEquals("split at " + k, LINES, collect(first, second));
+            }
+        } finally {
+            ff.close();
+        }
+    }
+
+    public void testBench() throws Exception {
+        FileBench.makeFile(file, 1 << 20);
+        long[] fibers = FileBench.runFibers(scheduler, file, 100, 4096);
+        long[] thread = FileBench.runThread(file);
+        assertEquals(thread[1], fibers[1]);
+    }
+
+    private List<String> collect(LineReader... readers) throws Exception {
+        ExFileTasks.LineCollector c = new ExFileTasks.LineCollector(readers);
+        c.start(scheduler);
+        assertTrue(c.done.await(10, TimeUnit.SECONDS));
+        assertNull(c.failure);
+        return c.lines;
+    }
+}
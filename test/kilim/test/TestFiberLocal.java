@@ -0,0 +1,65 @@
+package kilim.test;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import kilim.FiberLocal;
+import kilim.test.ex.ExFiberLocalTask;
+
+public class TestFiberLocal extends TestCase {
+
+    public void testGetSet() {
+        ExFiberLocalTask t = new ExFiberLocalTask("a");
+        t._runExecute();
+        t._runExecute();
+        assertTrue(t.isDone());
+        assertEquals(Arrays.asList("none", "a", "none"), t.seen);
+    }
+
+    public void testInherit() {
+        ExFiberLocalTask parent = new ExFiberLocalTask("p");
+        parent._runExecute();
+
+        // sets its own value, the parent must not see it
+        ExFiberLocalTask child = new ExFiberLocalTask("c");
+        child.inheritLocals(parent);
+        // only reads
+        ExFiberLocalTask reader = new ExFiberLocalTask(null);
+        reader.inheritLocals(parent);
+
+        child._runExecute();
+        assertEquals("p", ExFiberLocalTask.NAME.get(parent));
+        ExFiberLocalTask.NAME.set(parent, "q");
+        reader._runExecute();
+        assertEquals("p", ExFiberLocalTask.NAME.get(reader));
+        child._runExecute();
+        reader._runExecute();
+        parent._runExecute();
+
+        assertEquals(Arrays.asList("p", "c", "none"), child.seen);
+        assertEquals(Arrays.asList("p", "p", "none"), reader.seen);
+        assertEquals(Arrays.asList("none", "q", "none"), parent.seen);
+    }
+
+    public void testManyLocals() {
+        FiberLocal<Integer>[] ls = newLocals(40);
+        ExFiberLocalTask t = new ExFiberLocalTask(null);
+        for (int i = 0; i < ls.length; i++) {
+            ls[i].set(t, i);
+        }
+        for (int i = 0; i < ls.length; i++) {
+            assertEquals(Integer.valueOf(i), ls[i].get(t));
+        }
+        t.reset();
+        assertNull(ls[0].get(t));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FiberLocal<Integer>[] newLocals(int n) {
+        FiberLocal<Integer>[] ls = new FiberLocal[n];
+        for (int i = 0; i < n; i++) {
+            ls[i] = new FiberLocal<Integer>();
+        }
+        return ls;
+    }
+}
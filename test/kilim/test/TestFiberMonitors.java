@@ -0,0 +1,68 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license 
+ * specified in the file "License"
+ */
+
+package kilim.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.analysis.ClassInfo;
+import kilim.analysis.ClassWeaver;
+import kilim.tools.Weaver;
+
+/**
+ * Weaves ExFiberMonitorTask, which pauses inside synchronized blocks and
+ * methods, with fiber monitors turned on, and runs it. This runs with the
+ * unwoven test classes.
+ */
+public class TestFiberMonitors extends TestCase {
+    static final String TASK = "kilim.test.ex.ExFiberMonitorTask";
+    static final String COUNTER = TASK + "$Counter";
+
+    public void testMonitors() throws Exception {
+        List<ClassInfo> classes = weave(TASK, COUNTER);
+        Class<?> c = new TestReuseStates.WovenClassLoader(classes).loadClass(TASK);
+        int numTasks = 10, loops = 100;
+        Scheduler s = new Scheduler(4);
+        try {
+            CountDownLatch done = new CountDownLatch(numTasks);
+            for (int i = 0; i < numTasks; i++) {
+                ((Task) c.getConstructor(int.class, CountDownLatch.class).newInstance(loops, done)).start(s);
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            s.shutdown();
+        }
+        long[] stats = (long[]) c.getMethod("stats").invoke(null);
+        assertEquals(3 * numTasks * loops, stats[0]);
+        // paused inside, but never two at once
+        assertEquals(1, stats[1]);
+    }
+
+    public void testInvalidSynchronizedWeaves() throws Exception {
+        // rejected without -m, see TestInvalidPausables
+        weave("kilim.test.ex.ExInvalidSynchronized", "kilim.test.ex.ExInvalidSynchronized1");
+    }
+
+    static List<ClassInfo> weave(String... names) throws Exception {
+        boolean orig = ClassWeaver.fiberMonitors;
+        List<ClassInfo> classes = new ArrayList<ClassInfo>();
+        ClassWeaver.fiberMonitors = true;
+        try {
+            for (String name : names) {
+                classes.addAll(new Weaver().weave(new ClassInfo(name, TestReuseStates.getBytes(name))));
+            }
+        } finally {
+            ClassWeaver.fiberMonitors = orig;
+        }
+        return classes;
+    }
+}
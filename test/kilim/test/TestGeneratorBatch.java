@@ -0,0 +1,65 @@
+package kilim.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import kilim.test.ex.ExBatchGenerator;
+import kilim.test.ex.ExPrimitiveGenerators.Longs;
+
+/**
+ * Generator.nextBatch() and the batching yield
+ */
+public class TestGeneratorBatch extends TestCase {
+
+    public void testBatches() {
+        ExBatchGenerator g = new ExBatchGenerator(100);
+        Integer[] out = new Integer[16];
+        List<Integer> sizes = new ArrayList<Integer>();
+        List<Integer> all = new ArrayList<Integer>();
+        int n;
+        while ((n = g.nextBatch(out)) > 0) {
+            sizes.add(n);
+            all.addAll(Arrays.asList(out).subList(0, n));
+        }
+        // the generator only pauses when the batch is full
+        assertEquals(Arrays.asList(16, 16, 16, 16, 16, 16, 6), sizes);
+        assertEquals(102, all.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, all.get(i).intValue());
+        }
+        assertEquals(Arrays.asList(100, 101), all.subList(100, 102));
+        assertTrue(g.isDone());
+        assertEquals(0, g.nextBatch(out));
+    }
+
+    public void testMixed() {
+        ExBatchGenerator g = new ExBatchGenerator(10);
+        assertEquals(0, g.next().intValue());
+        assertTrue(g.hasNext());
+        Integer[] out = new Integer[4];
+        // the value fetched by hasNext() comes first
+        assertEquals(4, g.nextBatch(out));
+        assertEquals(Arrays.asList(1, 2, 3, 4), Arrays.asList(out));
+        assertEquals(5, g.next().intValue());
+        assertEquals(0, g.nextBatch(new Integer[0]));
+        assertEquals(6, g.next().intValue());
+    }
+
+    public void testLongBatches() {
+        Longs g = new Longs(0, 1000);
+        long[] out = new long[64];
+        long sum = 0;
+        int batches = 0;
+        int n;
+        while ((n = g.nextBatch(out)) > 0) {
+            for (int i = 0; i < n; i++) {
+                sum += out[i];
+            }
+            batches++;
+        }
+        assertEquals(999 * 1000 / 2, sum);
+        assertEquals(16, batches);
+    }
+}
@@ -0,0 +1,61 @@
+package kilim.test;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import kilim.test.ex.ExBatchGenerator;
+import kilim.test.ex.ExFailingGenerator;
+
+/**
+ * Generator.prefetch()
+ */
+public class TestGeneratorPrefetch extends TestCase {
+    ExecutorService executor;
+
+    protected void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    public void testPrefetch() {
+        for (int depth : new int[] { 1, 3, 64 }) {
+            Iterator<Integer> it = new ExBatchGenerator(20000).prefetch(depth, executor);
+            for (int i = 0; i < 20000; i++) {
+                assertTrue(it.hasNext());
+                assertEquals(i, it.next().intValue());
+                if (i % 5000 == 0) {
+                    // let the producer run into a full ring
+                    Thread.yield();
+                }
+            }
+            assertEquals(100, it.next().intValue());
+            assertEquals(101, it.next().intValue());
+            assertFalse(it.hasNext());
+            try {
+                it.next();
+                fail("iterator is exhausted");
+            } catch (NoSuchElementException expected) {
+            }
+        }
+    }
+
+    public void testFailure() {
+        Iterator<Integer> it = new ExFailingGenerator(10).prefetch(4, executor);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, it.next().intValue());
+        }
+        try {
+            it.hasNext();
+            fail("generator failed");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertFalse(it.hasNext());
+    }
+}
@@ -0,0 +1,78 @@
+package kilim.test;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+import kilim.test.ex.ExBatchGenerator;
+import kilim.test.ex.ExPausingGenerator;
+
+/**
+ * Generator.spliterator() and Generator.stream()
+ */
+public class TestGeneratorStream extends TestCase {
+
+    public void testSplit() {
+        ExBatchGenerator g = new ExBatchGenerator(5000);
+        Spliterator<Integer> s = g.spliterator();
+        Spliterator<Integer> first = s.trySplit();
+        assertEquals(1024, first.estimateSize());
+        assertTrue(first.hasCharacteristics(Spliterator.SIZED));
+        Spliterator<Integer> second = s.trySplit();
+        assertEquals(2048, second.estimateSize());
+        final int[] count = new int[1];
+        Consumer<Integer> counter = new Consumer<Integer>() {
+            public void accept(Integer i) {
+                count[0]++;
+            }
+        };
+        assertTrue(s.tryAdvance(counter));
+        s.forEachRemaining(counter);
+        // 5000 + 100 and 101
+        assertEquals(5002 - 1024 - 2048, count[0]);
+        assertNull(s.trySplit());
+        assertEquals(0, s.estimateSize());
+    }
+
+    public void testParallel() {
+        long expected = 0;
+        for (int i = 0; i < 100000; i++) {
+            expected += 2L * i;
+        }
+        expected += 2 * (100 + 101);
+        long sum = new ExBatchGenerator(100000).stream().parallel().mapToLong(i -> 2L * i).sum();
+        assertEquals(expected, sum);
+
+        // order is kept
+        List<Integer> l = new ExBatchGenerator(10000).stream().parallel().collect(Collectors.toList());
+        assertEquals(10002, l.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, l.get(i).intValue());
+        }
+    }
+
+    public void testPausesBetweenYields() {
+        List<Integer> l = new ExPausingGenerator(3000).stream().collect(Collectors.toList());
+        assertEquals(3000, l.size());
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(i, l.get(i).intValue());
+        }
+
+        Spliterator<Integer> s = new ExPausingGenerator(3).spliterator();
+        final int[] count = new int[1];
+        Consumer<Integer> counter = new Consumer<Integer>() {
+            public void accept(Integer i) {
+                count[0]++;
+            }
+        };
+        assertTrue(s.tryAdvance(counter));
+        // a chunk ends where the generator pauses
+        assertEquals(1, s.trySplit().estimateSize());
+        assertTrue(s.tryAdvance(counter));
+        assertFalse(s.tryAdvance(counter));
+        assertNull(s.trySplit());
+        assertEquals(2, count[0]);
+    }
+}
@@ -0,0 +1,51 @@
+package kilim.test;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import kilim.PausableInvoker;
+import kilim.TaskCancelledException;
+import kilim.test.ex.ExInvokeTask;
+
+/**
+ * Reflective invocation of pausable methods
+ */
+public class TestInvoke extends TestCase {
+
+    public void testInvoke() throws Exception {
+        ExInvokeTask t = new ExInvokeTask();
+        int runs = 0;
+        while (!t.isDone()) {
+            t.run();
+            runs++;
+        }
+        assertEquals("OK", t.exitResult);
+        assertEquals(Arrays.<Object> asList("p", "px0", 10, "y30", 3, 5, "pz", "p", "px1", 11, "y31", 4, 6, "pz", "fails"), t.results);
+        // every invocation yields once, except two() which yields twice
+        assertEquals(2 * 9 + 1 + 1, runs);
+    }
+
+    public void testCached() throws Exception {
+        java.lang.reflect.Method m = ExInvokeTask.class.getMethod("one", String.class);
+        assertSame(PausableInvoker.of(m), PausableInvoker.of(m));
+        try {
+            PausableInvoker.of(Object.class.getMethod("toString"));
+            fail("toString is not pausable");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testCancelNotWrapped() throws Exception {
+        ExInvokeTask.Cancellee t = new ExInvokeTask.Cancellee();
+        t.run();
+        assertFalse(t.isDone());
+        t.cancel();
+        try {
+            t.run();
+            fail("cancelled task ran to completion");
+        } catch (RuntimeException expected) {
+        }
+        assertTrue(t.isDone());
+        assertTrue(t.exitResult instanceof TaskCancelledException);
+    }
+}
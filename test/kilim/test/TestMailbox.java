@@ -0,0 +1,101 @@
+package kilim.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import kilim.Mailbox;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.TaskCancelledException;
+import kilim.test.ex.ExMailboxTasks.Consumer;
+import kilim.test.ex.ExMailboxTasks.Drainer;
+import kilim.test.ex.ExMailboxTasks.Producer;
+
+/**
+ * pausable get/put on a bounded mailbox
+ */
+public class TestMailbox extends TestCase {
+    Scheduler scheduler;
+
+    protected void setUp() throws Exception {
+        scheduler = new Scheduler(4);
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    public void testNonPausable() {
+        Mailbox<String> mb = new Mailbox<String>(3);
+        assertEquals(4, mb.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(mb.putnb("m" + i));
+        }
+        assertFalse(mb.putnb("full"));
+        assertEquals(4, mb.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("m" + i, mb.getnb());
+        }
+        assertNull(mb.getnb());
+    }
+
+    public void testProducersConsumer() throws Exception {
+        // a tiny mailbox, so that producers keep pausing on a full mailbox
+        Mailbox<Integer> mb = new Mailbox<Integer>(4);
+        int numProducers = 8, perProducer = 5000;
+        CountDownLatch latch = new CountDownLatch(1);
+        Consumer c = new Consumer(mb, numProducers * perProducer, latch);
+        c.start(scheduler);
+        long expected = 0;
+        for (int p = 0; p < numProducers; p++) {
+            int from = p * perProducer, to = from + perProducer;
+            for (int i = from; i < to; i++) {
+                expected += i;
+            }
+            new Producer(mb, from, to).start(scheduler);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(expected, c.sum);
+        assertEquals(0, mb.size());
+    }
+
+    /*
+     * One worker: both producers pause on the full mailbox before the drainer
+     * runs, and the first one is cancelled after being resumed. The room must
+     * go to the second.
+     */
+    public void testCancelPausedProducer() throws Exception {
+        // tasks on the thread backend are not run one at a time
+        if (!Task.backend().equals("fiber")) {
+            return;
+        }
+        Scheduler one = new Scheduler(1);
+        try {
+            Mailbox<Integer> mb = new Mailbox<Integer>(1);
+            assertTrue(mb.putnb(0));
+            Producer first = new Producer(mb, 1, 2);
+            Producer second = new Producer(mb, 2, 3);
+            Drainer d = new Drainer(mb, first);
+            first.start(one);
+            second.start(one);
+            d.start(one);
+            waitDone(d);
+            waitDone(first);
+            waitDone(second);
+            assertEquals(0, (int) d.taken);
+            assertTrue(first.exitResult instanceof TaskCancelledException);
+            assertEquals(2, (int) mb.getnb());
+            assertNull(mb.getnb());
+        } finally {
+            one.shutdown();
+        }
+    }
+
+    private static void waitDone(Task t) throws InterruptedException {
+        for (int i = 0; i < 1000 && !t.isDone(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(t.isDone());
+    }
+}
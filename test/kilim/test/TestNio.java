@@ -0,0 +1,51 @@
+package kilim.test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.nio.FiberServerSocketChannel;
+import kilim.nio.SelectorLoop;
+import kilim.test.ex.ExNioTasks.Client;
+import kilim.test.ex.ExNioTasks.EchoOnce;
+
+/**
+ * pausable socket channels: an echo round trip, and a clean end of stream
+ */
+public class TestNio extends TestCase {
+
+    public void testEchoAndEof() throws Exception {
+        Scheduler s = new Scheduler(2);
+        SelectorLoop loop = new SelectorLoop();
+        try {
+            ServerSocketChannel ssc = ServerSocketChannel.open();
+            ssc.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            FiberServerSocketChannel server = new FiberServerSocketChannel(ssc, loop);
+            EchoOnce echo = new EchoOnce(server);
+            echo.start(s);
+            Client client = new Client(server.getLocalAddress(), loop, "hello");
+            client.start(s);
+            waitDone(client);
+            waitDone(echo);
+            assertEquals("OK", client.exitResult);
+            assertEquals("OK", echo.exitResult);
+            assertEquals("hello", client.reply);
+            // the server saw the client's end of stream, and closed in turn
+            assertEquals(5, echo.echoed);
+            assertTrue(client.sawEof);
+            assertFalse(server.isOpen());
+        } finally {
+            loop.shutdown();
+            s.shutdown();
+        }
+    }
+
+    private static void waitDone(Task t) throws InterruptedException {
+        for (int i = 0; i < 1000 && !t.isDone(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(t.isDone());
+    }
+}
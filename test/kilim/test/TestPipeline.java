@@ -0,0 +1,56 @@
+package kilim.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import kilim.test.ex.ExBatchGenerator;
+
+/**
+ * The fused operators of Generator and Pipeline
+ */
+public class TestPipeline extends TestCase {
+
+    static <T> List<T> toList(Iterator<T> it) {
+        List<T> l = new ArrayList<T>();
+        while (it.hasNext()) {
+            l.add(it.next());
+        }
+        return l;
+    }
+
+    public void testOperators() {
+        List<String> l = toList(new ExBatchGenerator(10).filter(x -> x % 3 == 0).map(x -> "#" + x));
+        assertEquals(Arrays.asList("#0", "#3", "#6", "#9"), l);
+
+        // flatMap into other generators
+        List<Integer> f = toList(new ExBatchGenerator(3).take(3).flatMap(x -> new ExBatchGenerator(x)));
+        assertEquals(Arrays.asList(100, 101, 0, 100, 101, 0, 1, 100, 101), f);
+    }
+
+    public void testTakeIsLazy() {
+        ExBatchGenerator g = new ExBatchGenerator(1000);
+        Iterator<Integer> it = g.map(x -> x * 2).take(3);
+        assertEquals(Arrays.asList(0, 2, 4), toList(it));
+        // the source has not been run past the third value
+        assertEquals(3, g.next().intValue());
+        assertEquals(0, toList(g.take(0)).size());
+    }
+
+    public void testLongChain() {
+        // the five stages of examples/PipelineBench, against the same done
+        // by hand
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int x : toList(new ExBatchGenerator(1000))) {
+            int y = x + 1;
+            if ((y & 1) == 0 && expected.size() < 300) {
+                expected.add(y >> 1);
+            }
+        }
+        assertEquals(expected, toList(new ExBatchGenerator(1000).map(x -> x + 1).filter(x -> (x & 1) == 0).map(x -> x >> 1).take(300)));
+        // a take() longer than the source ends with it
+        assertEquals(501, toList(new ExBatchGenerator(1000).map(x -> x + 1).filter(x -> (x & 1) == 0).take(1000)).size());
+    }
+}
@@ -0,0 +1,76 @@
+package kilim.test;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+import junit.framework.TestCase;
+import kilim.test.ex.ExPrimitiveGenerators.Doubles;
+import kilim.test.ex.ExPrimitiveGenerators.Gap;
+import kilim.test.ex.ExPrimitiveGenerators.Ints;
+import kilim.test.ex.ExPrimitiveGenerators.Longs;
+
+/**
+ * IntGenerator, LongGenerator and DoubleGenerator
+ */
+public class TestPrimitiveGenerators extends TestCase {
+
+    public void testInts() {
+        Ints g = new Ints(100);
+        int expected = 0;
+        while (g.hasNext()) {
+            assertEquals(expected++, g.nextInt());
+        }
+        assertEquals(100, expected);
+        try {
+            g.nextInt();
+            fail("generator is exhausted");
+        } catch (NoSuchElementException e) {
+        }
+        g.reset();
+        assertEquals(4950, g.stream().sum());
+    }
+
+    public void testLongs() {
+        long base = 1L << 40;
+        Longs g = new Longs(base, base + 1000);
+        PrimitiveIterator.OfLong it = g.iterator();
+        assertEquals(base, it.nextLong());
+        // boxing access still works
+        assertEquals(Long.valueOf(base + 1), it.next());
+        final long[] sum = new long[1];
+        it.forEachRemaining(new LongConsumer() {
+            public void accept(long l) {
+                sum[0] += l;
+            }
+        });
+        long total = 0;
+        for (long l = base + 2; l < base + 1000; l++) {
+            total += l;
+        }
+        assertEquals(total, sum[0]);
+        assertFalse(g.hasNext());
+    }
+
+    public void testDoubles() {
+        Doubles g = new Doubles(10);
+        // unknown size
+        assertEquals(Long.MAX_VALUE, g.spliterator().estimateSize());
+        double[] vals = g.stream().toArray();
+        assertEquals(10, vals.length);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i / 2.0, vals[i], 0.0);
+        }
+    }
+
+    public void testPauseWithoutValue() {
+        Gap g = new Gap();
+        // like Generator, a pause that does not yield a value ends hasNext()
+        assertFalse(g.hasNext());
+        assertFalse(g.isDone());
+        assertTrue(g.hasNext());
+        assertEquals(42, g.nextInt());
+        assertFalse(g.hasNext());
+        assertTrue(g.isDone());
+    }
+}
@@ -0,0 +1,100 @@
+/* Copyright (c) 2006, Sriram Srinivasan
+ *
+ * You may distribute this software under the terms of the license 
+ * specified in the file "License"
+ */
+
+package kilim.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import kilim.analysis.ClassInfo;
+import kilim.analysis.ClassWeaver;
+import kilim.tools.Weaver;
+
+/**
+ * Weaves ExReuseGenerator with state reuse turned on, and checks that it
+ * still produces the same values. This runs with the unwoven test classes.
+ */
+public class TestReuseStates extends TestCase {
+    static final String GEN = "kilim.test.ex.ExReuseGenerator";
+
+    @SuppressWarnings("unchecked")
+    public void testReuse() throws Exception {
+        boolean orig = ClassWeaver.reuseStates;
+        List<ClassInfo> classes;
+        ClassWeaver.reuseStates = true;
+        try {
+            classes = new Weaver().weave(new ClassInfo(GEN, getBytes(GEN)));
+        } finally {
+            ClassWeaver.reuseStates = orig;
+        }
+        Class<?> c = new WovenClassLoader(classes).loadClass(GEN);
+        int n = 50;
+        Iterator<String> gen = (Iterator<String>) c.getConstructor(int.class).newInstance(n);
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            if ((i & 1) == 0) {
+                expected.add("ints " + i);
+                expected.add("ints " + (i + 1) + " " + (i + 2));
+            } else {
+                expected.add("mixed " + i);
+                expected.add("mixed " + i + " " + (i * 10L) + " " + (i / 2.0));
+            }
+            expected.add("fail " + i);
+            expected.add("caught " + i);
+        }
+        List<String> actual = new ArrayList<String>();
+        while (gen.hasNext()) {
+            actual.add(gen.next());
+        }
+        assertEquals(expected, actual);
+    }
+
+    static byte[] getBytes(String className) throws IOException {
+        InputStream is = TestReuseStates.class.getClassLoader().getResourceAsStream(className.replace('.', '/') + ".class");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0) {
+            bos.write(buf, 0, n);
+        }
+        is.close();
+        return bos.toByteArray();
+    }
+
+    /*
+     * Prefers the freshly woven classes over those on the classpath.
+     */
+    static class WovenClassLoader extends ClassLoader {
+        final HashMap<String, ClassInfo> classes = new HashMap<String, ClassInfo>();
+
+        WovenClassLoader(List<ClassInfo> cis) {
+            super(TestReuseStates.class.getClassLoader());
+            for (ClassInfo ci : cis) {
+                classes.put(ci.className, ci);
+            }
+        }
+
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            ClassInfo ci = classes.get(name);
+            if (ci == null)
+                return super.loadClass(name, resolve);
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                c = defineClass(name, ci.bytes, 0, ci.bytes.length);
+            }
+            if (resolve)
+                resolveClass(c);
+            return c;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package kilim.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.test.ex.ExPingPong;
+import kilim.test.ex.ExReentrantTask;
+import kilim.test.ex.ExYieldTask;
+
+/**
+ * tasks run by the work-stealing scheduler
+ */
+public class TestScheduler extends TestCase {
+    Scheduler scheduler;
+
+    protected void setUp() throws Exception {
+        scheduler = new Scheduler(4);
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    public void testYield() throws Exception {
+        int numTasks = 100, numYields = 100;
+        AtomicInteger counter = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(numTasks);
+        for (int i = 0; i < numTasks; i++) {
+            new ExYieldTask(numYields, counter, latch).start(scheduler);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(numTasks * numYields, counter.get());
+    }
+
+    public void testReentrantRun() throws Exception {
+        ExReentrantTask t = new ExReentrantTask();
+        t.run();
+        assertFalse(t.isDone());
+        // nobody to resume it
+        assertFalse(t.resume());
+        try {
+            t.run();
+            fail("task ran while running");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(t.isDone());
+        assertTrue(t.exitResult instanceof IllegalStateException);
+        // no-op once done
+        t.run();
+    }
+
+    public void testPingPong() throws Exception {
+        int numPairs = 10, numPasses = 100;
+        CountDownLatch latch = new CountDownLatch(2 * numPairs);
+        ExPingPong.Baton[] batons = new ExPingPong.Baton[numPairs];
+        for (int i = 0; i < numPairs; i++) {
+            ExPingPong.Baton b = batons[i] = new ExPingPong.Baton();
+            ExPingPong ping = new ExPingPong(b, 0, numPasses, latch);
+            ExPingPong pong = new ExPingPong(b, 1, numPasses, latch);
+            ping.start(scheduler);
+            pong.start(scheduler);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < numPasses; i++) {
+            expected.append("01");
+        }
+        for (ExPingPong.Baton b : batons) {
+            assertEquals(expected.toString(), b.trace.toString());
+        }
+    }
+
+    public void testResumeBeforeStart() {
+        Task t = new ExYieldTask(1, new AtomicInteger(), new CountDownLatch(1));
+        assertFalse(t.resume());
+    }
+
+    public void testStartTwice() {
+        Task t = new ExYieldTask(1, new AtomicInteger(), new CountDownLatch(1));
+        t.start(scheduler);
+        try {
+            t.start(scheduler);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package kilim.test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.test.ex.ExSpawnTasks;
+
+/**
+ * Task.spawn(), join(), joinAll() and cancel()
+ */
+public class TestSpawn extends TestCase {
+    Scheduler scheduler;
+
+    protected void setUp() throws Exception {
+        scheduler = new Scheduler(4);
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    public void testJoinAll() throws Exception {
+        int n = 100;
+        int[] nums = new int[n];
+        long expected = 0;
+        for (int i = 0; i < n; i++) {
+            nums[i] = i;
+            expected += i * i;
+        }
+        ExSpawnTasks.Parent p = new ExSpawnTasks.Parent(nums);
+        p.start(scheduler);
+        assertTrue(p.done.await(10, TimeUnit.SECONDS));
+        assertNull(p.failure);
+        assertEquals(expected, p.sum);
+        // the first run, and at most one wake-up for all the children
+        assertTrue("runs: " + p.runs, p.runs.get() <= 2);
+    }
+
+    public void testJoinFailure() throws Exception {
+        ExSpawnTasks.Parent p = new ExSpawnTasks.Parent(1, -2, 3);
+        p.start(scheduler);
+        assertTrue(p.done.await(10, TimeUnit.SECONDS));
+        assertTrue(p.failure instanceof IllegalArgumentException);
+        assertEquals("-2", p.failure.getMessage());
+    }
+
+    public void testFailingParentCancelsChildren() throws Exception {
+        ExSpawnTasks.FailingParent p = new ExSpawnTasks.FailingParent();
+        p.start(scheduler);
+        waitDone(p);
+        assertTrue(p.exitResult instanceof CompletionException);
+        waitDone(p.blocked);
+        assertTrue(p.blocked.isCancelled());
+        assertTrue(p.blocked.exitResult instanceof CancellationException);
+    }
+
+    public void testCancel() throws Exception {
+        ExSpawnTasks.Blocked b = new ExSpawnTasks.Blocked();
+        b.start(scheduler);
+        Thread.sleep(20);
+        assertFalse(b.isDone());
+        assertTrue(b.cancel());
+        waitDone(b);
+        assertTrue(b.exitResult instanceof CancellationException);
+        assertFalse(b.cancel());
+    }
+
+    private static void waitDone(kilim.Task t) throws InterruptedException {
+        for (int i = 0; i < 1000 && !t.isDone(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(t.isDone());
+    }
+}
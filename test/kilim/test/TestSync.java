@@ -0,0 +1,213 @@
+package kilim.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.TaskCancelledException;
+import kilim.sync.FiberCondition;
+import kilim.sync.FiberCountDownLatch;
+import kilim.sync.FiberMutex;
+import kilim.sync.FiberReadWriteLock;
+import kilim.sync.FiberSemaphore;
+import kilim.test.ex.ExSyncTasks;
+import kilim.test.ex.ExSyncTasks.Section;
+
+/**
+ * the pausable synchronizers in kilim.sync
+ */
+public class TestSync extends TestCase {
+    Scheduler scheduler;
+
+    protected void setUp() throws Exception {
+        scheduler = new Scheduler(4);
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    public void testMutex() throws Exception {
+        int n = 20;
+        FiberMutex mutex = new FiberMutex();
+        Section section = new Section();
+        CountDownLatch done = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            new ExSyncTasks.MutexTask(mutex, section, 200, done).start(scheduler);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, section.maxInside.get());
+        assertFalse(mutex.isLocked());
+        try {
+            mutex.unlock();
+            fail("unlocked a free mutex");
+        } catch (IllegalMonitorStateException e) {
+        }
+    }
+
+    public void testUnlockByNonOwner() throws Exception {
+        FiberMutex mutex = new FiberMutex();
+        FiberCountDownLatch release = new FiberCountDownLatch(1);
+        ExSyncTasks.Locker nobody = new ExSyncTasks.Locker(mutex);
+        ExSyncTasks.Canceller holder = new ExSyncTasks.Canceller(mutex, release, nobody);
+        holder.start(scheduler);
+        for (int i = 0; i < 1000 && !holder.holding; i++) {
+            Thread.sleep(10);
+        }
+        ExSyncTasks.Intruder intruder = new ExSyncTasks.Intruder(mutex);
+        intruder.start(scheduler);
+        waitDone(intruder);
+        assertTrue(intruder.refused);
+        assertTrue(mutex.isHeldBy(holder));
+        release.countDown();
+        waitDone(holder);
+        assertFalse(mutex.isLocked());
+    }
+
+    /*
+     * One worker, so that the holder unlocks (resuming the first waiter) and
+     * cancels that waiter before it runs. The next in line must be woken.
+     */
+    public void testCancelQueuedWaiter() throws Exception {
+        // tasks on the thread backend are not run one at a time
+        if (!Task.backend().equals("fiber")) {
+            return;
+        }
+        Scheduler one = new Scheduler(1);
+        try {
+            FiberMutex mutex = new FiberMutex();
+            FiberCountDownLatch release = new FiberCountDownLatch(1);
+            ExSyncTasks.Locker first = new ExSyncTasks.Locker(mutex);
+            ExSyncTasks.Locker second = new ExSyncTasks.Locker(mutex);
+            ExSyncTasks.Canceller holder = new ExSyncTasks.Canceller(mutex, release, first);
+            holder.start(one);
+            first.start(one);
+            second.start(one);
+            for (int i = 0; i < 1000 && mutex.getQueueLength() < 2; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, mutex.getQueueLength());
+            release.countDown();
+            waitDone(first);
+            waitDone(second);
+            assertTrue(first.exitResult instanceof TaskCancelledException);
+            assertFalse(first.locked);
+            assertTrue(second.locked);
+            assertFalse(mutex.isLocked());
+            assertEquals(0, mutex.getQueueLength());
+        } finally {
+            one.shutdown();
+        }
+    }
+
+    /*
+     * The first waiter is signalled and cancelled while the signaller keeps
+     * the mutex: it cannot take the mutex back, must not fail in its unlock(),
+     * and passes the signal on to the second.
+     */
+    public void testCancelConditionWaiter() throws Exception {
+        // tasks on the thread backend are not run one at a time
+        if (!Task.backend().equals("fiber")) {
+            return;
+        }
+        Scheduler one = new Scheduler(1);
+        try {
+            FiberMutex mutex = new FiberMutex();
+            FiberCondition cond = mutex.newCondition();
+            FiberCountDownLatch release = new FiberCountDownLatch(1);
+            ExSyncTasks.CondWaiter first = new ExSyncTasks.CondWaiter(mutex, cond);
+            ExSyncTasks.CondWaiter second = new ExSyncTasks.CondWaiter(mutex, cond);
+            ExSyncTasks.Signaller signaller = new ExSyncTasks.Signaller(mutex, cond, first, release);
+            first.start(one);
+            second.start(one);
+            signaller.start(one);
+            for (int i = 0; i < 1000 && !signaller.holding; i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(signaller.holding);
+            waitDone(first);
+            // not an IllegalMonitorStateException from its unlock()
+            assertTrue(first.exitResult instanceof TaskCancelledException);
+            assertFalse(first.woke);
+            assertTrue(mutex.isHeldBy(signaller));
+            release.countDown();
+            waitDone(second);
+            assertTrue(second.woke);
+            assertFalse(mutex.isLocked());
+        } finally {
+            one.shutdown();
+        }
+    }
+
+    public void testReadWriteLock() throws Exception {
+        int n = 20;
+        FiberReadWriteLock lock = new FiberReadWriteLock();
+        Section readers = new Section(), writers = new Section();
+        CountDownLatch done = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            new ExSyncTasks.RWTask(lock, readers, writers, i % 4 == 0, 200, done).start(scheduler);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, writers.maxInside.get());
+        assertEquals(0, lock.getReadLockCount());
+        assertFalse(lock.isWriteLocked());
+    }
+
+    public void testSemaphore() throws Exception {
+        int n = 20;
+        FiberSemaphore sem = new FiberSemaphore(3);
+        Section section = new Section();
+        CountDownLatch done = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            new ExSyncTasks.SemaphoreTask(sem, section, 200, done).start(scheduler);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(section.maxInside.get() <= 3);
+        assertEquals(3, sem.availablePermits());
+    }
+
+    public void testCondition() throws Exception {
+        int numProducers = 4, perProducer = 2000;
+        ExSyncTasks.Buffer buf = new ExSyncTasks.Buffer(2);
+        CountDownLatch done = new CountDownLatch(1);
+        ExSyncTasks.Consumer c = new ExSyncTasks.Consumer(buf, numProducers * perProducer, done);
+        c.start(scheduler);
+        long expected = 0;
+        for (int p = 0; p < numProducers; p++) {
+            int from = p * perProducer, to = from + perProducer;
+            for (int i = from; i < to; i++) {
+                expected += i;
+            }
+            new ExSyncTasks.Producer(buf, from, to).start(scheduler);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(expected, c.sum);
+    }
+
+    public void testLatch() throws Exception {
+        int n = 10;
+        FiberCountDownLatch latch = new FiberCountDownLatch(2);
+        AtomicInteger passed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            new ExSyncTasks.LatchTask(latch, passed, done).start(scheduler);
+        }
+        Thread.sleep(20);
+        latch.countDown();
+        Thread.sleep(20);
+        assertEquals(0, passed.get());
+        latch.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(n, passed.get());
+    }
+
+    private static void waitDone(Task t) throws InterruptedException {
+        for (int i = 0; i < 1000 && !t.isDone(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(t.isDone());
+    }
+}
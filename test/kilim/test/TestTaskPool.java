@@ -0,0 +1,159 @@
+package kilim.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.TaskPool;
+import kilim.test.ex.ExJoiner;
+import kilim.test.ex.ExReuseGenerator;
+import kilim.test.ex.ExYieldTask;
+
+/**
+ * Task.reset(), TaskPool and task ids
+ */
+public class TestTaskPool extends TestCase {
+
+    public void testResetGenerator() throws Exception {
+        ExReuseGenerator g = new ExReuseGenerator(5);
+        List<String> first = new ArrayList<String>();
+        for (String s : g) {
+            first.add(s);
+        }
+        assertTrue(g.isDone());
+        g.reset();
+        assertFalse(g.isDone());
+        List<String> second = new ArrayList<String>();
+        for (String s : g) {
+            second.add(s);
+        }
+        assertEquals(20, first.size());
+        assertEquals(first, second);
+
+        // a directly driven task may be abandoned half way
+        g.reset();
+        g.next();
+        g.next();
+        g.reset();
+        assertEquals(first.get(0), g.next());
+    }
+
+    public void testPooledTasks() throws Exception {
+        Scheduler s = new Scheduler(2);
+        try {
+            final AtomicInteger counter = new AtomicInteger();
+            final CountDownLatch latch = new CountDownLatch(3);
+            TaskPool<ExYieldTask> pool = new TaskPool<ExYieldTask>(1) {
+                protected ExYieldTask create() {
+                    return new ExYieldTask(10, counter, latch);
+                }
+            };
+            ExYieldTask t = pool.get();
+            for (int i = 0; i < 3; i++) {
+                assertEquals(0, pool.size());
+                t.start(s);
+                waitUntilDone(t);
+                assertTrue(pool.release(t));
+                assertEquals(1, pool.size());
+                ExYieldTask u = pool.get();
+                assertSame(t, u);
+            }
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+            assertEquals(30, counter.get());
+            assertEquals("OK", t.exitResult);
+
+            // only one fits
+            ExYieldTask other = new ExYieldTask(0, counter, new CountDownLatch(1));
+            assertTrue(pool.release(t));
+            assertFalse(pool.release(other));
+        } finally {
+            s.shutdown();
+        }
+    }
+
+    public void testResetRunning() throws Exception {
+        Scheduler s = new Scheduler(1);
+        ExYieldTask t = new ExYieldTask(Integer.MAX_VALUE, new AtomicInteger(), new CountDownLatch(1));
+        try {
+            t.start(s);
+            try {
+                t.reset();
+                fail("reset a running task");
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            // stop it at its next yield, it would run forever
+            t.cancel();
+            waitUntilDone(t);
+            s.shutdown();
+        }
+    }
+
+    /*
+     * A task reset as soon as isDone() flips may still be telling its last
+     * joiners; its next run must get joiners of its own.
+     */
+    public void testResetAsSoonAsDone() throws Exception {
+        Scheduler s = new Scheduler(2);
+        try {
+            ExYieldTask t = new ExYieldTask(1, new AtomicInteger(), new CountDownLatch(Integer.MAX_VALUE));
+            t.start(s);
+            for (int i = 0; i < 200; i++) {
+                while (!t.isDone()) {
+                    Thread.yield();
+                }
+                t.reset();
+                ExJoiner j = new ExJoiner(t);
+                t.start(s);
+                j.start(s);
+                waitUntilDone(j);
+                assertTrue(j.sawDone);
+            }
+        } finally {
+            s.shutdown();
+        }
+    }
+
+    public void testUniqueIds() throws Exception {
+        final int numThreads = 4, numTasks = 3000;
+        final List<Task> tasks = new ArrayList<Task>();
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    List<Task> mine = new ArrayList<Task>();
+                    for (int j = 0; j < numTasks; j++) {
+                        mine.add(new ExYieldTask(0, null, null));
+                    }
+                    synchronized (tasks) {
+                        tasks.addAll(mine);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Task t : tasks) {
+            assertTrue(ids.add(t.id()));
+        }
+        assertEquals(numThreads * numTasks, ids.size());
+    }
+
+    static void waitUntilDone(Task t) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!t.isDone()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
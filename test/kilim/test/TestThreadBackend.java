@@ -0,0 +1,85 @@
+package kilim.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.Task;
+import kilim.TaskCancelledException;
+import kilim.test.ex.ExCancelTasks;
+import kilim.test.ex.ExThreadTasks;
+import kilim.test.ex.ExYieldTask;
+
+/**
+ * The thread backend, run unwoven by AllThreads
+ */
+public class TestThreadBackend extends TestCase {
+    Scheduler scheduler;
+
+    protected void setUp() throws Exception {
+        scheduler = new Scheduler(1);
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    public void testBackend() {
+        assertTrue(Task.backend(), Task.backend().endsWith("-thread"));
+    }
+
+    public void testOwnThread() throws Exception {
+        ExThreadTasks.Recorder r = new ExThreadTasks.Recorder();
+        r.start(scheduler);
+        for (int i = 0; i < 1000 && r.threads.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        r.mb.putnb("go");
+        assertTrue(r.done.await(10, TimeUnit.SECONDS));
+        Thread t = r.threads.get(0);
+        assertSame(t, r.threads.get(1));
+        assertFalse(t.getName().startsWith("KilimWorker"));
+    }
+
+    public void testCancelPaused() throws Exception {
+        ExCancelTasks.Sleeper s = new ExCancelTasks.Sleeper();
+        s.start(scheduler);
+        assertTrue(s.started.await(10, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        assertTrue(s.cancel());
+        for (int i = 0; i < 1000 && !s.isDone(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(s.exitResult instanceof TaskCancelledException);
+        assertTrue(s.cleanedUp);
+        assertFalse(s.woke);
+    }
+
+    public void testShutdownStopsYielder() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        ExYieldTask t = new ExYieldTask(Integer.MAX_VALUE, count, new CountDownLatch(1));
+        t.start(scheduler);
+        for (int i = 0; i < 1000 && count.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(count.get() > 0);
+        scheduler.shutdown();
+        Thread.sleep(20);
+        int stopped = count.get();
+        Thread.sleep(50);
+        assertEquals(stopped, count.get());
+        assertFalse(t.isDone());
+    }
+
+    public void testResetGenerator() throws Exception {
+        ExCancelTasks.Counter c = new ExCancelTasks.Counter();
+        assertEquals(0, (int) c.next());
+        assertEquals(1, (int) c.next());
+        // a fresh thread from the top, the old one runs out
+        c.reset();
+        assertEquals(0, (int) c.next());
+        assertEquals(1, (int) c.next());
+    }
+}
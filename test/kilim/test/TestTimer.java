@@ -0,0 +1,104 @@
+package kilim.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import kilim.Scheduler;
+import kilim.Timer;
+import kilim.TimerWheel;
+import kilim.test.ex.ExSleepTasks.Sleeper;
+import kilim.test.ex.ExSleepTasks.TimedPauser;
+
+/**
+ * the timing wheel, Task.sleep and pausing with a timeout
+ */
+public class TestTimer extends TestCase {
+    Scheduler scheduler;
+
+    protected void setUp() throws Exception {
+        scheduler = new Scheduler(2);
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    static class CountingTimer extends Timer {
+        final long due;
+        final CountDownLatch latch;
+        final AtomicInteger early;
+
+        CountingTimer(long delayMillis, CountDownLatch latch, AtomicInteger early) {
+            super(null);
+            this.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            this.latch = latch;
+            this.early = early;
+        }
+
+        protected void expired() {
+            if (System.nanoTime() < due) {
+                early.incrementAndGet();
+            }
+            latch.countDown();
+        }
+    }
+
+    // short ticks, so that timers cascade down through three levels
+    public void testCascade() throws Exception {
+        TimerWheel wheel = new TimerWheel(10, TimeUnit.MICROSECONDS);
+        try {
+            int n = 1000;
+            CountDownLatch latch = new CountDownLatch(n);
+            AtomicInteger early = new AtomicInteger();
+            Timer[] cancelled = new Timer[n];
+            for (int i = 0; i < n; i++) {
+                wheel.schedule(new CountingTimer(i % 400, latch, early), i % 400);
+                cancelled[i] = wheel.schedule(new CountingTimer(0, new CountDownLatch(1), early), 200 + i % 400);
+            }
+            for (Timer t : cancelled) {
+                assertTrue(t.cancel());
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals(0, early.get());
+            for (Timer t : cancelled) {
+                assertFalse(t.hasFired());
+            }
+        } finally {
+            wheel.shutdown();
+        }
+    }
+
+    public void testSleep() throws Exception {
+        int n = 1000;
+        CountDownLatch latch = new CountDownLatch(n);
+        Sleeper[] sleepers = new Sleeper[n];
+        for (int i = 0; i < n; i++) {
+            sleepers[i] = new Sleeper(50 + i % 50, latch);
+            sleepers[i].start(scheduler);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < n; i++) {
+            assertTrue(sleepers[i].slept >= 50 + i % 50);
+        }
+    }
+
+    public void testPauseTimeout() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        TimedPauser p = new TimedPauser(50, latch);
+        p.start(scheduler);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertFalse(p.resumedInTime);
+    }
+
+    public void testPauseResumedInTime() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        TimedPauser p = new TimedPauser(10000, latch);
+        p.start(scheduler);
+        Thread.sleep(50);
+        p.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(p.resumedInTime);
+    }
+}
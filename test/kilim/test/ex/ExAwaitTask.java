@@ -0,0 +1,42 @@
+package kilim.test.ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Awaits futures that the test completes from another thread.
+ */
+public class ExAwaitTask extends Task {
+    public final CompletableFuture<String> a = new CompletableFuture<String>();
+    public final CompletableFuture<String> b = new CompletableFuture<String>();
+    public final CompletableFuture<String> c = new CompletableFuture<String>();
+    public final CompletableFuture<String> d = new CompletableFuture<String>();
+    public final CompletableFuture<String> e = new CompletableFuture<String>();
+    public final List<String> trace = Collections.synchronizedList(new ArrayList<String>());
+    public final CountDownLatch done = new CountDownLatch(1);
+
+    public void execute() throws Pausable {
+        trace.add(Task.await(CompletableFuture.completedFuture("now")));
+        trace.add(Task.await(a));
+        // a plain stage, not a CompletableFuture
+        trace.add(Task.await(a.thenApply(s -> s + "!")));
+        Task.awaitAll(b, c);
+        // the test completes c before b
+        trace.add(b.isDone() && c.isDone() ? b.join() + c.join() : "returned early");
+        trace.add(Task.<String> awaitAny(Arrays.asList(d, e)));
+        try {
+            Task.await(e);
+        } catch (CompletionException ex) {
+            trace.add("failed " + ex.getCause().getMessage());
+        }
+        done.countDown();
+    }
+}
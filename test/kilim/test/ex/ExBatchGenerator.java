@@ -0,0 +1,33 @@
+package kilim.test.ex;
+
+import java.util.Arrays;
+
+import kilim.Generator;
+import kilim.Pausable;
+
+/**
+ * Yields 0, 1, ..., n-1 from a few frames down, then 100 and 101 through
+ * yieldAll().
+ */
+public class ExBatchGenerator extends Generator<Integer> {
+    final int n;
+
+    public ExBatchGenerator(int n) {
+        this.n = n;
+    }
+
+    public void execute() throws Pausable {
+        level1();
+        yieldAll(Arrays.asList(100, 101));
+    }
+
+    private void level1() throws Pausable {
+        level2();
+    }
+
+    private void level2() throws Pausable {
+        for (int i = 0; i < n; i++) {
+            this.yield(i);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package kilim.test.ex;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import kilim.BlockingPool;
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Tasks that make blocking calls through a BlockingPool.
+ */
+public class ExBlockingTasks {
+
+    /**
+     * Makes one call, blocked on the gate, and keeps what it returned or threw.
+     */
+    public static class Caller extends Task {
+        final BlockingPool pool;
+        final CountDownLatch gate;
+        final String reply;
+        public final CountDownLatch done = new CountDownLatch(1);
+        public volatile Object result;
+        public volatile Exception failure;
+        public volatile String thread;
+
+        public Caller(BlockingPool pool, CountDownLatch gate, String reply) {
+            this.pool = pool;
+            this.gate = gate;
+            this.reply = reply;
+        }
+
+        public void execute() throws Pausable {
+            try {
+                result = pool.call(new Callable<String>() {
+                    public String call() throws Exception {
+                        thread = Thread.currentThread().getName();
+                        gate.await(10, TimeUnit.SECONDS);
+                        if (reply == null)
+                            throw new java.io.IOException("no reply");
+                        return reply;
+                    }
+                });
+            } catch (Exception e) {
+                failure = e;
+            }
+            done.countDown();
+        }
+    }
+
+    /**
+     * Goes through Task.runBlocking() and the default pool.
+     */
+    public static class DefaultCaller extends Task {
+        public final CountDownLatch done = new CountDownLatch(1);
+        public volatile Object result;
+
+        public void execute() throws Pausable {
+            try {
+                result = Task.runBlocking(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        Thread.sleep(10);
+                        return 42;
+                    }
+                });
+            } catch (Exception e) {
+                result = e;
+            }
+            done.countDown();
+        }
+    }
+
+    /**
+     * Holds up its worker thread, which a task should never do, so that tasks
+     * resumed meanwhile stay in the run queue.
+     */
+    public static class Hog extends Task {
+        public final CountDownLatch hogging = new CountDownLatch(1);
+        public final CountDownLatch release = new CountDownLatch(1);
+
+        public void execute() throws Pausable {
+            hogging.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+}
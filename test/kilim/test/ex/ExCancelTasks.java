@@ -0,0 +1,95 @@
+package kilim.test.ex;
+
+import java.util.concurrent.CountDownLatch;
+
+import kilim.Generator;
+import kilim.Pausable;
+import kilim.Task;
+import kilim.TaskCancelledException;
+
+/**
+ * Tasks to be cancelled, or to run past their deadlines.
+ */
+public class ExCancelTasks {
+
+    /**
+     * Makes pausable calls in a loop without ever pausing; only the
+     * cancellation point in Fiber.down() can stop it.
+     */
+    public static class Spinner extends Task {
+        public final CountDownLatch started = new CountDownLatch(1);
+        public volatile boolean cleanedUp;
+        public long steps;
+
+        public void execute() throws Pausable {
+            try {
+                started.countDown();
+                for (int i = 0;; i++) {
+                    step(i);
+                }
+            } finally {
+                cleanedUp = true;
+            }
+        }
+
+        void step(int i) throws Pausable {
+            if (i < 0)
+                Task.yield();
+            steps++;
+        }
+    }
+
+    /**
+     * Sleeps for a long time, two frames down.
+     */
+    public static class Sleeper extends Task {
+        public final CountDownLatch started = new CountDownLatch(1);
+        public volatile boolean cleanedUp;
+        public volatile boolean woke;
+
+        public void execute() throws Pausable {
+            try {
+                started.countDown();
+                nap();
+                woke = true;
+            } finally {
+                cleanedUp = true;
+            }
+        }
+
+        void nap() throws Pausable {
+            Task.sleep(100000);
+        }
+    }
+
+    /**
+     * Swallows the first TaskCancelledException and goes back to sleep.
+     */
+    public static class Stubborn extends Task {
+        public final CountDownLatch started = new CountDownLatch(1);
+        public volatile boolean caught;
+        public volatile boolean woke;
+
+        public void execute() throws Pausable {
+            try {
+                started.countDown();
+                Task.sleep(100000);
+            } catch (TaskCancelledException e) {
+                caught = true;
+            }
+            Task.sleep(100000);
+            woke = true;
+        }
+    }
+
+    /**
+     * Counts up forever.
+     */
+    public static class Counter extends Generator<Integer> {
+        public void execute() throws Pausable {
+            for (int i = 0;; i++) {
+                this.yield(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package kilim.test.ex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Catches exceptions thrown from nested pausable frames, and pauses again
+ * inside the catch handlers.
+ */
+public class ExCatchTask extends Task {
+    public List<String> trace = new ArrayList<String>();
+
+    public void execute() throws Pausable {
+        for (int i = 0; i < 3; i++) {
+            try {
+                level1(i);
+            } catch (IllegalStateException e) {
+                trace.add("caught " + e.getMessage());
+                Task.yield();
+                trace.add("resumed " + i);
+            }
+        }
+    }
+
+    private void level1(int i) throws Pausable {
+        String s = "l1-" + i;
+        try {
+            level2(i);
+        } catch (IllegalArgumentException e) {
+            Task.yield();
+            trace.add(s + " " + e.getMessage());
+            throw new IllegalStateException("from " + s);
+        }
+    }
+
+    private void level2(int i) throws Pausable {
+        Task.yield();
+        throw new IllegalArgumentException("l2-" + i);
+    }
+}
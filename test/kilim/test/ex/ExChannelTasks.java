@@ -0,0 +1,172 @@
+package kilim.test.ex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kilim.Channel;
+import kilim.Pausable;
+import kilim.Select;
+import kilim.Task;
+
+/**
+ * Senders, receivers and selectors talking through channels.
+ */
+public class ExChannelTasks {
+    public static class Sender extends Task {
+        final Channel<Integer> ch;
+        final int from, to;
+        final CountDownLatch latch;
+
+        public Sender(Channel<Integer> ch, int from, int to, CountDownLatch latch) {
+            this.ch = ch;
+            this.from = from;
+            this.to = to;
+            this.latch = latch;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = from; i < to; i++) {
+                ch.send(i);
+            }
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Adds up whatever it receives until the channel is closed.
+     */
+    public static class Receiver extends Task {
+        final Channel<Integer> ch;
+        final AtomicLong sum;
+        final CountDownLatch latch;
+
+        public Receiver(Channel<Integer> ch, AtomicLong sum, CountDownLatch latch) {
+            this.ch = ch;
+            this.sum = sum;
+            this.latch = latch;
+        }
+
+        public void execute() throws Pausable {
+            Integer i;
+            while ((i = ch.recv()) != null) {
+                sum.addAndGet(i);
+            }
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Selects over two channels to receive from and one to send to, until
+     * the select times out, and traces what it did.
+     */
+    public static class Selector extends Task {
+        final Channel<String> a, b, out;
+        public final List<String> trace = new ArrayList<String>();
+        public final CountDownLatch done = new CountDownLatch(1);
+
+        public Selector(Channel<String> a, Channel<String> b, Channel<String> out) {
+            this.a = a;
+            this.b = b;
+            this.out = out;
+        }
+
+        public void execute() throws Pausable {
+            Select sel = new Select();
+            int ca = sel.recv(a);
+            int cb = sel.recv(b);
+            int co = sel.send(out, "out");
+            for (;;) {
+                int c = sel.select(100);
+                if (c == Select.TIMEOUT) {
+                    trace.add("timeout");
+                    break;
+                } else if (c == ca || c == cb) {
+                    trace.add(sel.<String> received());
+                } else if (c == co) {
+                    trace.add("sent");
+                }
+            }
+            done.countDown();
+        }
+    }
+
+    /**
+     * Waits for messages or for the quit channel to be closed, counting its
+     * own runs.
+     */
+    public static class Waiter extends Task {
+        final Channel<String> ch, quit;
+        final AtomicInteger runs, received;
+        final CountDownLatch latch;
+
+        public Waiter(Channel<String> ch, Channel<String> quit, AtomicInteger runs, AtomicInteger received, CountDownLatch latch) {
+            this.ch = ch;
+            this.quit = quit;
+            this.runs = runs;
+            this.received = received;
+            this.latch = latch;
+        }
+
+        public void execute() throws Pausable {
+            Select sel = new Select();
+            int cm = sel.recv(ch);
+            sel.recv(quit);
+            while (sel.select() == cm) {
+                received.incrementAndGet();
+            }
+            latch.countDown();
+        }
+
+        public void _runExecute() {
+            runs.incrementAndGet();
+            super._runExecute();
+        }
+    }
+
+    /**
+     * Receives one message, alone or through a select with a second channel.
+     */
+    public static class Taker extends Task {
+        final Channel<String> ch;
+        final boolean select;
+        public volatile String got;
+
+        public Taker(Channel<String> ch, boolean select) {
+            this.ch = ch;
+            this.select = select;
+        }
+
+        public void execute() throws Pausable {
+            if (select) {
+                Select sel = new Select();
+                sel.recv(ch);
+                sel.recv(new Channel<String>());
+                sel.select();
+                got = sel.received();
+            } else {
+                got = ch.recv();
+            }
+        }
+    }
+
+    /**
+     * Sends without pausing, then cancels the task the message went to.
+     */
+    public static class Canceller extends Task {
+        final Channel<String> ch;
+        final Task victim;
+
+        public Canceller(Channel<String> ch, Task victim) {
+            this.ch = ch;
+            this.victim = victim;
+        }
+
+        public void execute() throws Pausable {
+            ch.sendnb("m");
+            victim.cancel();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package kilim.test.ex;
+
+import kilim.Generator;
+import kilim.Pausable;
+
+/**
+ * Yields 0, 1, ..., n-1, then throws.
+ */
+public class ExFailingGenerator extends Generator<Integer> {
+    final int n;
+
+    public ExFailingGenerator(int n) {
+        this.n = n;
+    }
+
+    public void execute() throws Pausable {
+        for (int i = 0; i < n; i++) {
+            this.yield(i);
+        }
+        throw new IllegalStateException("after " + n);
+    }
+}
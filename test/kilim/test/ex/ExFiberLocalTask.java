@@ -0,0 +1,38 @@
+package kilim.test.ex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kilim.FiberLocal;
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Records the value of a fiber local, optionally sets it, yields and records
+ * it again.
+ */
+public class ExFiberLocalTask extends Task {
+    public static final FiberLocal<String> NAME = new FiberLocal<String>() {
+        protected String initialValue() {
+            return "none";
+        }
+    };
+
+    public final List<String> seen = new ArrayList<String>();
+    public String value;
+
+    public ExFiberLocalTask(String value) {
+        this.value = value;
+    }
+
+    public void execute() throws Pausable {
+        seen.add(NAME.get());
+        if (value != null) {
+            NAME.set(value);
+        }
+        Task.yield();
+        seen.add(NAME.get());
+        NAME.remove();
+        seen.add(NAME.get());
+    }
+}
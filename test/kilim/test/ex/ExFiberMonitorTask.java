@@ -0,0 +1,92 @@
+package kilim.test.ex;
+
+import java.util.concurrent.CountDownLatch;
+
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Pauses inside synchronized blocks and methods. Only valid when woven with
+ * fiber monitors (Weaver -m), so the regular build leaves it alone.
+ */
+public class ExFiberMonitorTask extends Task {
+    static final Object lock = new Object();
+    static final Counter counter = new Counter();
+    static int inside, maxInside;
+    static long count;
+    // guarded by the class
+    static int staticInside, staticMaxInside;
+    static long staticCount;
+
+    final int loops;
+    final CountDownLatch done;
+
+    public ExFiberMonitorTask(int loops, CountDownLatch done) {
+        this.loops = loops;
+        this.done = done;
+    }
+
+    public void execute() throws Pausable {
+        for (int i = 0; i < loops; i++) {
+            synchronized (lock) {
+                enter();
+                Task.yield();
+                count++;
+                leave();
+            }
+            counter.inc();
+            try {
+                counter.fail();
+            } catch (IllegalStateException e) {
+                // the monitor must have been let go of on the way out
+            }
+            staticInc();
+        }
+        done.countDown();
+    }
+
+    static synchronized void staticInc() throws Pausable {
+        if (++staticInside > staticMaxInside)
+            staticMaxInside = staticInside;
+        Task.yield();
+        staticCount++;
+        staticInside--;
+    }
+
+    static void enter() {
+        if (++inside > maxInside)
+            maxInside = inside;
+    }
+
+    static void leave() {
+        inside--;
+    }
+
+    /**
+     * {count, most tasks seen inside a monitor at once}
+     */
+    public static long[] stats() {
+        return new long[] { count + counter.count + staticCount, Math.max(maxInside, Math.max(counter.maxInside, staticMaxInside)) };
+    }
+
+    public static class Counter {
+        int inside, maxInside;
+        long count;
+
+        synchronized void inc() throws Pausable {
+            if (++inside > maxInside)
+                maxInside = inside;
+            Task.yield();
+            count++;
+            inside--;
+        }
+
+        synchronized void fail() throws Pausable {
+            Task.yield();
+            // reentrant
+            synchronized (this) {
+                throw new IllegalStateException();
+            }
+        }
+    }
+}
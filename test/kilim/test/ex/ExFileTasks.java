@@ -0,0 +1,80 @@
+package kilim.test.ex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import kilim.Pausable;
+import kilim.Task;
+import kilim.nio.FiberFile;
+import kilim.nio.LineReader;
+
+/**
+ * Tasks doing file I/O through FiberFile.
+ */
+public class ExFileTasks {
+
+    /**
+     * Writes the bytes at the given position, then reads the whole file back.
+     */
+    public static class WriteRead extends Task {
+        final FiberFile file;
+        final byte[] data;
+        final long pos;
+        public final CountDownLatch done = new CountDownLatch(1);
+        public volatile byte[] contents;
+        public volatile int eofRead;
+        public volatile Throwable failure;
+
+        public WriteRead(FiberFile file, byte[] data, long pos) {
+            this.file = file;
+            this.data = data;
+            this.pos = pos;
+        }
+
+        public void execute() throws Pausable {
+            try {
+                file.write(ByteBuffer.wrap(data), pos);
+                ByteBuffer buf = ByteBuffer.allocate((int) file.size());
+                while (buf.hasRemaining()) {
+                    if (file.read(buf, buf.position()) < 0)
+                        break;
+                }
+                contents = buf.array();
+                eofRead = file.read(ByteBuffer.allocate(1), file.size());
+            } catch (Throwable th) {
+                failure = th;
+            }
+            done.countDown();
+        }
+    }
+
+    /**
+     * Collects the lines of one or more readers, one after the other.
+     */
+    public static class LineCollector extends Task {
+        final LineReader[] readers;
+        public final List<String> lines = new ArrayList<String>();
+        public final CountDownLatch done = new CountDownLatch(1);
+        public volatile Throwable failure;
+
+        public LineCollector(LineReader... readers) {
+            this.readers = readers;
+        }
+
+        public void execute() throws Pausable {
+            try {
+                for (LineReader r : readers) {
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        lines.add(line);
+                    }
+                }
+            } catch (Throwable th) {
+                failure = th;
+            }
+            done.countDown();
+        }
+    }
+}
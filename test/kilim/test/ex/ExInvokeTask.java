@@ -0,0 +1,93 @@
+package kilim.test.ex;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import kilim.Pausable;
+import kilim.PausableInvoker;
+import kilim.Task;
+
+/**
+ * Calls pausable methods, which yield before returning, through
+ * PausableInvoker and Task.invoke().
+ */
+public class ExInvokeTask extends Task {
+    public List<Object> results = new ArrayList<Object>();
+    String prefix = "p";
+
+    public String none() throws Pausable {
+        Task.yield();
+        return prefix;
+    }
+
+    public String one(String a) throws Pausable {
+        Task.yield();
+        return prefix + a;
+    }
+
+    public static int two(int a, int b) throws Pausable {
+        Task.yield();
+        Task.yield();
+        return a + b;
+    }
+
+    public String three(String a, long b, Object c) throws Pausable {
+        Task.yield();
+        return a + b + c;
+    }
+
+    public void four(List<Object> l, int a, int b, int c) throws Pausable {
+        Task.yield();
+        l.add(a + b + c);
+    }
+
+    public void fails() throws Pausable {
+        Task.yield();
+        throw new IllegalStateException("fails");
+    }
+
+    static Method find(String name) {
+        for (Method m : ExInvokeTask.class.getDeclaredMethods()) {
+            if (m.getName().equals(name) && m.getParameterTypes().length < 5 && !hasFiber(m))
+                return m;
+        }
+        throw new AssertionError(name);
+    }
+
+    static boolean hasFiber(Method m) {
+        Class<?>[] ps = m.getParameterTypes();
+        return ps.length > 0 && ps[ps.length - 1] == kilim.Fiber.class;
+    }
+
+    public void execute() throws Pausable, Exception {
+        PausableInvoker none = PausableInvoker.of(find("none"));
+        PausableInvoker one = PausableInvoker.of(find("one"));
+        PausableInvoker two = PausableInvoker.of(find("two"));
+        PausableInvoker three = PausableInvoker.of(find("three"));
+        PausableInvoker four = PausableInvoker.of(find("four"));
+        for (int i = 0; i < 2; i++) {
+            results.add(none.invoke(this));
+            results.add(one.invoke(this, "x" + i));
+            results.add(two.invoke(null, i, 10));
+            results.add(three.invoke(this, "y", 3L, i));
+            four.invokeArgs(this, results, 1, 2, i);
+            results.add(two.invokeArgs(null, 5, i));
+            results.add(Task.invoke(find("one"), this, "z"));
+        }
+        try {
+            PausableInvoker.of(find("fails")).invoke(this);
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            results.add(e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Invokes a method that yields, to be cancelled while it does.
+     */
+    public static class Cancellee extends Task {
+        public void execute() throws Pausable, Exception {
+            PausableInvoker.of(find("none")).invoke(new ExInvokeTask());
+        }
+    }
+}
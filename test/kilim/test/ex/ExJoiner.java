@@ -0,0 +1,21 @@
+package kilim.test.ex;
+
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Joins a task, and notes whether it was done by the time join() returned.
+ */
+public class ExJoiner extends Task {
+    final Task target;
+    public volatile boolean sawDone;
+
+    public ExJoiner(Task target) {
+        this.target = target;
+    }
+
+    public void execute() throws Pausable {
+        target.join();
+        sawDone = target.isDone();
+    }
+}
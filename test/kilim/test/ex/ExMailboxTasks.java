@@ -0,0 +1,69 @@
+package kilim.test.ex;
+
+import java.util.concurrent.CountDownLatch;
+
+import kilim.Mailbox;
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Producers and a consumer talking through a mailbox.
+ */
+public class ExMailboxTasks {
+    public static class Producer extends Task {
+        final Mailbox<Integer> mb;
+        final int from, to;
+
+        public Producer(Mailbox<Integer> mb, int from, int to) {
+            this.mb = mb;
+            this.from = from;
+            this.to = to;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = from; i < to; i++) {
+                mb.put(i);
+            }
+        }
+    }
+
+    public static class Consumer extends Task {
+        final Mailbox<Integer> mb;
+        final int count;
+        final CountDownLatch latch;
+        public long sum;
+
+        public Consumer(Mailbox<Integer> mb, int count, CountDownLatch latch) {
+            this.mb = mb;
+            this.count = count;
+            this.latch = latch;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = 0; i < count; i++) {
+                sum += mb.get();
+            }
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Makes room in the mailbox, which resumes the first paused producer, and
+     * cancels that producer in the same run.
+     */
+    public static class Drainer extends Task {
+        final Mailbox<Integer> mb;
+        final Task victim;
+        public volatile Integer taken;
+
+        public Drainer(Mailbox<Integer> mb, Task victim) {
+            this.mb = mb;
+            this.victim = victim;
+        }
+
+        public void execute() throws Pausable {
+            taken = mb.getnb();
+            victim.cancel();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package kilim.test.ex;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import kilim.Pausable;
+import kilim.Task;
+import kilim.nio.FiberServerSocketChannel;
+import kilim.nio.FiberSocketChannel;
+import kilim.nio.SelectorLoop;
+
+/**
+ * One echo round trip over pausable socket channels, ended by the client
+ * shutting down its output.
+ */
+public class ExNioTasks {
+    /**
+     * Accepts one connection and echoes it until end of stream, then closes
+     * the connection and the server.
+     */
+    public static class EchoOnce extends Task {
+        final FiberServerSocketChannel server;
+        public volatile int echoed;
+
+        public EchoOnce(FiberServerSocketChannel server) {
+            this.server = server;
+        }
+
+        public void execute() throws Pausable, Exception {
+            FiberSocketChannel ch = server.accept();
+            ByteBuffer buf = ByteBuffer.allocate(64);
+            try {
+                int n;
+                while ((n = ch.read(buf)) != -1) {
+                    buf.flip();
+                    ch.write(buf);
+                    buf.clear();
+                    echoed += n;
+                }
+            } finally {
+                ch.close();
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Sends a message, reads the echo back, then shuts down its output and
+     * waits for the server to close.
+     */
+    public static class Client extends Task {
+        final SocketAddress addr;
+        final SelectorLoop loop;
+        final String msg;
+        public volatile String reply;
+        public volatile boolean sawEof;
+
+        public Client(SocketAddress addr, SelectorLoop loop, String msg) {
+            this.addr = addr;
+            this.loop = loop;
+            this.msg = msg;
+        }
+
+        public void execute() throws Pausable, Exception {
+            FiberSocketChannel ch = new FiberSocketChannel(SocketChannel.open(), loop);
+            try {
+                ch.connect(addr);
+                byte[] out = msg.getBytes("UTF-8");
+                ch.write(ByteBuffer.wrap(out));
+                ByteBuffer in = ByteBuffer.allocate(out.length);
+                while (in.hasRemaining()) {
+                    if (ch.read(in) == -1)
+                        return;
+                }
+                reply = new String(in.array(), "UTF-8");
+                ch.getChannel().shutdownOutput();
+                in.clear();
+                sawEof = ch.read(in) == -1;
+            } finally {
+                ch.close();
+            }
+        }
+    }
+}
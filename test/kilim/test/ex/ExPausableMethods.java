@@ -0,0 +1,42 @@
+package kilim.test.ex;
+
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Overloads that differ in being pausable, for the weaver's
+ * $pausableMethods table. Each method notes the line it runs at.
+ */
+public class ExPausableMethods extends Task {
+    public int pausableLine, plainLine, otherLine;
+
+    public void execute() throws Pausable {
+        run(1);
+        run("x");
+        other();
+    }
+
+    void run(int n) throws Pausable {
+        pausableLine = line();
+        Task.yield();
+    }
+
+    void run(String s) {
+        plainLine = line();
+    }
+
+    void other() throws Pausable {
+        otherLine = line();
+        Task.yield();
+    }
+
+    static int line() {
+        return new Exception().getStackTrace()[1].getLineNumber();
+    }
+
+    /**
+     * Not woven, as it has no pausable methods of its own
+     */
+    public static class Plain extends ExPausableMethods {
+    }
+}
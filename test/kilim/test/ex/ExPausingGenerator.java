@@ -0,0 +1,23 @@
+package kilim.test.ex;
+
+import kilim.Generator;
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Yields 0, 1, ..., n-1, pausing without a value before each one.
+ */
+public class ExPausingGenerator extends Generator<Integer> {
+    final int n;
+
+    public ExPausingGenerator(int n) {
+        this.n = n;
+    }
+
+    public void execute() throws Pausable {
+        for (int i = 0; i < n; i++) {
+            Task.yield();
+            this.yield(i);
+        }
+    }
+}
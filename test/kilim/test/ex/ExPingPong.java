@@ -0,0 +1,49 @@
+package kilim.test.ex;
+
+import java.util.concurrent.CountDownLatch;
+
+import kilim.Pausable;
+import kilim.PauseReason;
+import kilim.Task;
+
+/**
+ * A pair of tasks passing a baton back and forth, as in examples/PingPong.
+ * Each pass pauses one task and resumes the other.
+ */
+public class ExPingPong extends Task {
+    public static class Baton implements PauseReason {
+        volatile int turn;
+        final ExPingPong[] players = new ExPingPong[2];
+        /*
+         * who held the baton, in order; handed over along with the turn
+         */
+        public final StringBuilder trace = new StringBuilder();
+    }
+
+    final Baton baton;
+    final int me;
+    final int numPasses;
+    final CountDownLatch latch;
+
+    public ExPingPong(Baton b, int me, int numPasses, CountDownLatch latch) {
+        baton = b;
+        this.me = me;
+        this.numPasses = numPasses;
+        this.latch = latch;
+        b.players[me] = this;
+    }
+
+    public void execute() throws Pausable {
+        Baton b = baton;
+        ExPingPong other = b.players[1 - me];
+        for (int i = 0; i < numPasses; i++) {
+            while (b.turn != me) {
+                Task.pause(b);
+            }
+            b.trace.append(me);
+            b.turn = 1 - me;
+            other.resume();
+        }
+        latch.countDown();
+    }
+}
@@ -0,0 +1,76 @@
+package kilim.test.ex;
+
+import kilim.DoubleGenerator;
+import kilim.IntGenerator;
+import kilim.LongGenerator;
+import kilim.Pausable;
+import kilim.Task;
+
+public class ExPrimitiveGenerators {
+    /**
+     * 0, 1, ..., n-1, yielded from a nested pausable method
+     */
+    public static class Ints extends IntGenerator {
+        final int n;
+
+        public Ints(int n) {
+            this.n = n;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = 0; i < n; i++) {
+                produce(i);
+            }
+        }
+
+        private void produce(int i) throws Pausable {
+            this.yield(i);
+        }
+    }
+
+    /**
+     * from, from + 1, ..., to - 1
+     */
+    public static class Longs extends LongGenerator {
+        final long from, to;
+
+        public Longs(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public void execute() throws Pausable {
+            for (long l = from; l < to; l++) {
+                this.yield(l);
+            }
+        }
+    }
+
+    /**
+     * 0.0, 0.5, ... (n values), with a plain yield between values that does
+     * not produce anything.
+     */
+    public static class Doubles extends DoubleGenerator {
+        final int n;
+
+        public Doubles(int n) {
+            this.n = n;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = 0; i < n; i++) {
+                this.yield(i / 2.0);
+            }
+        }
+    }
+
+    /**
+     * Pauses once without a value before its only value.
+     */
+    public static class Gap extends IntGenerator {
+        public void execute() throws Pausable {
+            Task.yield();
+            this.yield(42);
+        }
+    }
+}
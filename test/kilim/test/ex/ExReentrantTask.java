@@ -0,0 +1,14 @@
+package kilim.test.ex;
+
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Tries to run itself from inside its own execute().
+ */
+public class ExReentrantTask extends Task {
+    public void execute() throws Pausable {
+        Task.yield();
+        run();
+    }
+}
@@ -0,0 +1,49 @@
+package kilim.test.ex;
+
+import kilim.Generator;
+import kilim.Pausable;
+
+/**
+ * Yields from frames of different shapes at the same depth, so that the
+ * spare state handed out for a depth is not always of the expected class.
+ */
+public class ExReuseGenerator extends Generator<String> {
+    final int n;
+
+    public ExReuseGenerator(int n) {
+        this.n = n;
+    }
+
+    public void execute() throws Pausable {
+        for (int i = 0; i < n; i++) {
+            if ((i & 1) == 0) {
+                ints(i);
+            } else {
+                mixed(this, i, i * 10L, i / 2.0);
+            }
+            try {
+                fail(i);
+            } catch (IllegalStateException e) {
+                this.yield(e.getMessage());
+            }
+        }
+    }
+
+    private void ints(int i) throws Pausable {
+        int a = i + 1;
+        int b = i + 2;
+        this.yield("ints " + i);
+        this.yield("ints " + a + " " + b);
+    }
+
+    static void mixed(ExReuseGenerator g, int i, long l, double d) throws Pausable {
+        String s = "mixed " + i;
+        g.yield(s);
+        g.yield(s + " " + l + " " + d);
+    }
+
+    private void fail(int i) throws Pausable {
+        this.yield("fail " + i);
+        throw new IllegalStateException("caught " + i);
+    }
+}
@@ -0,0 +1,46 @@
+package kilim.test.ex;
+
+import java.util.concurrent.CountDownLatch;
+
+import kilim.Pausable;
+import kilim.PauseReason;
+import kilim.Task;
+
+/**
+ * Tasks that sleep, or pause with a timeout.
+ */
+public class ExSleepTasks {
+    public static class Sleeper extends Task {
+        final long millis;
+        final CountDownLatch latch;
+        public volatile long slept;
+
+        public Sleeper(long millis, CountDownLatch latch) {
+            this.millis = millis;
+            this.latch = latch;
+        }
+
+        public void execute() throws Pausable {
+            long begin = System.nanoTime();
+            Task.sleep(millis);
+            slept = (System.nanoTime() - begin) / 1000000;
+            latch.countDown();
+        }
+    }
+
+    public static class TimedPauser extends Task implements PauseReason {
+        final long timeout;
+        final CountDownLatch latch;
+        public volatile boolean resumedInTime;
+
+        public TimedPauser(long timeout, CountDownLatch latch) {
+            this.timeout = timeout;
+            this.latch = latch;
+        }
+
+        public void execute() throws Pausable {
+            resumedInTime = Task.pause(this, timeout);
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package kilim.test.ex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kilim.Mailbox;
+import kilim.Pausable;
+import kilim.Task;
+
+public class ExSpawnTasks {
+
+    /**
+     * Yields a few times and exits with n * n, or fails if n is negative.
+     */
+    public static class Child extends Task {
+        final int n;
+
+        public Child(int n) {
+            this.n = n;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = 0; i < 10; i++) {
+                Task.yield();
+            }
+            if (n < 0)
+                throw new IllegalArgumentException("" + n);
+            Task.exit(n * n);
+        }
+    }
+
+    /**
+     * Waits on a mailbox nobody puts anything into.
+     */
+    public static class Blocked extends Task {
+        public void execute() throws Pausable {
+            new Mailbox<String>().get();
+        }
+    }
+
+    /**
+     * Spawns children for the given numbers, joins them all and adds up their
+     * results. Counts its own runs, to make sure joinAll() wakes it up once.
+     */
+    public static class Parent extends Task {
+        final int[] nums;
+        public final AtomicInteger runs = new AtomicInteger();
+        public final CountDownLatch done = new CountDownLatch(1);
+        public volatile long sum;
+        public volatile Throwable failure;
+
+        public Parent(int... nums) {
+            this.nums = nums;
+        }
+
+        public void execute() throws Pausable {
+            try {
+                List<Task> children = new ArrayList<Task>();
+                for (int n : nums) {
+                    children.add(Task.spawn(new Child(n)));
+                }
+                Task.joinAll(children);
+                long s = 0;
+                for (Task c : children) {
+                    s += (Integer) c.join();
+                }
+                sum = s;
+            } catch (CompletionException e) {
+                failure = e.getCause();
+            }
+            done.countDown();
+        }
+
+        public void _runExecute() {
+            runs.incrementAndGet();
+            super._runExecute();
+        }
+    }
+
+    /**
+     * Spawns a blocked child, joins a failing one, and dies of the failure.
+     */
+    public static class FailingParent extends Task {
+        public volatile Task blocked;
+
+        public void execute() throws Pausable {
+            blocked = Task.spawn(new Blocked());
+            Task.spawn(new Child(-1)).join();
+        }
+    }
+}
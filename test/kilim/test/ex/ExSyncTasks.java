@@ -0,0 +1,352 @@
+package kilim.test.ex;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kilim.Pausable;
+import kilim.Task;
+import kilim.sync.FiberCondition;
+import kilim.sync.FiberCountDownLatch;
+import kilim.sync.FiberMutex;
+import kilim.sync.FiberReadWriteLock;
+import kilim.sync.FiberSemaphore;
+
+/**
+ * Tasks using the kilim.sync primitives. All of them yield while holding a
+ * lock or permit, to give others a chance to break in.
+ */
+public class ExSyncTasks {
+    /**
+     * Counts tasks inside a section, and remembers the most seen at once.
+     */
+    public static class Section {
+        final AtomicInteger inside = new AtomicInteger();
+        public final AtomicInteger maxInside = new AtomicInteger();
+
+        void enter() {
+            int n = inside.incrementAndGet();
+            int m;
+            while (n > (m = maxInside.get()) && !maxInside.compareAndSet(m, n))
+                ;
+        }
+
+        void leave() {
+            inside.decrementAndGet();
+        }
+    }
+
+    public static class MutexTask extends Task {
+        final FiberMutex mutex;
+        final Section section;
+        final int loops;
+        final CountDownLatch done;
+
+        public MutexTask(FiberMutex mutex, Section section, int loops, CountDownLatch done) {
+            this.mutex = mutex;
+            this.section = section;
+            this.loops = loops;
+            this.done = done;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = 0; i < loops; i++) {
+                mutex.lock();
+                try {
+                    // reentrant
+                    mutex.lock();
+                    section.enter();
+                    Task.yield();
+                    section.leave();
+                    mutex.unlock();
+                } finally {
+                    mutex.unlock();
+                }
+            }
+            done.countDown();
+        }
+    }
+
+    public static class RWTask extends Task {
+        final FiberReadWriteLock lock;
+        final Section readers, writers;
+        final boolean write;
+        final int loops;
+        final CountDownLatch done;
+
+        public RWTask(FiberReadWriteLock lock, Section readers, Section writers, boolean write, int loops, CountDownLatch done) {
+            this.lock = lock;
+            this.readers = readers;
+            this.writers = writers;
+            this.write = write;
+            this.loops = loops;
+            this.done = done;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = 0; i < loops; i++) {
+                if (write) {
+                    lock.lockWrite();
+                    writers.enter();
+                    if (readers.inside.get() != 0)
+                        throw new IllegalStateException("readers inside with the writer");
+                    Task.yield();
+                    writers.leave();
+                    lock.unlockWrite();
+                } else {
+                    lock.lockRead();
+                    readers.enter();
+                    if (writers.inside.get() != 0)
+                        throw new IllegalStateException("writer inside with readers");
+                    Task.yield();
+                    readers.leave();
+                    lock.unlockRead();
+                }
+            }
+            done.countDown();
+        }
+    }
+
+    public static class SemaphoreTask extends Task {
+        final FiberSemaphore sem;
+        final Section section;
+        final int loops;
+        final CountDownLatch done;
+
+        public SemaphoreTask(FiberSemaphore sem, Section section, int loops, CountDownLatch done) {
+            this.sem = sem;
+            this.section = section;
+            this.loops = loops;
+            this.done = done;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = 0; i < loops; i++) {
+                sem.acquire();
+                section.enter();
+                Task.yield();
+                section.leave();
+                sem.release();
+            }
+            done.countDown();
+        }
+    }
+
+    /**
+     * A bounded buffer guarded by a mutex and two conditions.
+     */
+    public static class Buffer {
+        final FiberMutex mutex = new FiberMutex();
+        final FiberCondition notFull = mutex.newCondition();
+        final FiberCondition notEmpty = mutex.newCondition();
+        final ArrayDeque<Integer> items = new ArrayDeque<Integer>();
+        final int capacity;
+
+        public Buffer(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public void put(int i) throws Pausable {
+            mutex.lock();
+            try {
+                while (items.size() == capacity) {
+                    notFull.await();
+                }
+                items.add(i);
+                notEmpty.signal();
+            } finally {
+                mutex.unlock();
+            }
+        }
+
+        public int take() throws Pausable {
+            mutex.lock();
+            try {
+                while (items.isEmpty()) {
+                    notEmpty.await();
+                }
+                int i = items.poll();
+                notFull.signal();
+                return i;
+            } finally {
+                mutex.unlock();
+            }
+        }
+    }
+
+    public static class Producer extends Task {
+        final Buffer buf;
+        final int from, to;
+
+        public Producer(Buffer buf, int from, int to) {
+            this.buf = buf;
+            this.from = from;
+            this.to = to;
+        }
+
+        public void execute() throws Pausable {
+            for (int i = from; i < to; i++) {
+                buf.put(i);
+            }
+        }
+    }
+
+    public static class Consumer extends Task {
+        final Buffer buf;
+        final int count;
+        final CountDownLatch done;
+        public volatile long sum;
+
+        public Consumer(Buffer buf, int count, CountDownLatch done) {
+            this.buf = buf;
+            this.count = count;
+            this.done = done;
+        }
+
+        public void execute() throws Pausable {
+            long s = 0;
+            for (int i = 0; i < count; i++) {
+                s += buf.take();
+            }
+            sum = s;
+            done.countDown();
+        }
+    }
+
+    public static class LatchTask extends Task {
+        final FiberCountDownLatch latch;
+        final AtomicInteger passed;
+        final CountDownLatch done;
+
+        public LatchTask(FiberCountDownLatch latch, AtomicInteger passed, CountDownLatch done) {
+            this.latch = latch;
+            this.passed = passed;
+            this.done = done;
+        }
+
+        public void execute() throws Pausable {
+            latch.await();
+            passed.incrementAndGet();
+            done.countDown();
+        }
+    }
+
+    /**
+     * Locks the mutex, holds it until the release latch opens, then unlocks
+     * it and cancels the victim in the same run, before the victim (resumed
+     * by the unlock, if it was first in line) gets to run.
+     */
+    public static class Canceller extends Task {
+        final FiberMutex mutex;
+        final FiberCountDownLatch release;
+        final Task victim;
+        public volatile boolean holding;
+
+        public Canceller(FiberMutex mutex, FiberCountDownLatch release, Task victim) {
+            this.mutex = mutex;
+            this.release = release;
+            this.victim = victim;
+        }
+
+        public void execute() throws Pausable {
+            mutex.lock();
+            try {
+                holding = true;
+                release.await();
+            } finally {
+                mutex.unlock();
+                victim.cancel();
+            }
+        }
+    }
+
+    public static class Locker extends Task {
+        final FiberMutex mutex;
+        public volatile boolean locked;
+
+        public Locker(FiberMutex mutex) {
+            this.mutex = mutex;
+        }
+
+        public void execute() throws Pausable {
+            mutex.lock();
+            try {
+                locked = true;
+            } finally {
+                mutex.unlock();
+            }
+        }
+    }
+
+    /**
+     * Tries to unlock a mutex it does not hold.
+     */
+    public static class Intruder extends Task {
+        final FiberMutex mutex;
+        public volatile boolean refused;
+
+        public Intruder(FiberMutex mutex) {
+            this.mutex = mutex;
+        }
+
+        public void execute() throws Pausable {
+            try {
+                mutex.unlock();
+            } catch (IllegalMonitorStateException e) {
+                refused = true;
+            }
+        }
+    }
+
+    public static class CondWaiter extends Task {
+        final FiberMutex mutex;
+        final FiberCondition cond;
+        public volatile boolean woke;
+
+        public CondWaiter(FiberMutex mutex, FiberCondition cond) {
+            this.mutex = mutex;
+            this.cond = cond;
+        }
+
+        public void execute() throws Pausable {
+            mutex.lock();
+            try {
+                cond.await();
+                woke = true;
+            } finally {
+                mutex.unlock();
+            }
+        }
+    }
+
+    /**
+     * Signals the condition and cancels the signalled task, then keeps the
+     * mutex until the release latch opens.
+     */
+    public static class Signaller extends Task {
+        final FiberMutex mutex;
+        final FiberCondition cond;
+        final Task victim;
+        final FiberCountDownLatch release;
+        public volatile boolean holding;
+
+        public Signaller(FiberMutex mutex, FiberCondition cond, Task victim, FiberCountDownLatch release) {
+            this.mutex = mutex;
+            this.cond = cond;
+            this.victim = victim;
+            this.release = release;
+        }
+
+        public void execute() throws Pausable {
+            mutex.lock();
+            try {
+                cond.signal();
+                victim.cancel();
+                holding = true;
+                release.await();
+            } finally {
+                mutex.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package kilim.test.ex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import kilim.Mailbox;
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Tasks for the thread backend.
+ */
+public class ExThreadTasks {
+
+    /**
+     * Notes the thread it runs on before and after pausing on a mailbox.
+     */
+    public static class Recorder extends Task {
+        public final Mailbox<String> mb = new Mailbox<String>();
+        public final List<Thread> threads = new ArrayList<Thread>();
+        public final CountDownLatch done = new CountDownLatch(1);
+
+        public void execute() throws Pausable {
+            threads.add(Thread.currentThread());
+            mb.get();
+            threads.add(Thread.currentThread());
+            done.countDown();
+        }
+    }
+}
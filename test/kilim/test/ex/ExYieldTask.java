@@ -0,0 +1,30 @@
+package kilim.test.ex;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * Yields a number of times, counting each resumption.
+ */
+public class ExYieldTask extends Task {
+    final int numYields;
+    final AtomicInteger counter;
+    final CountDownLatch latch;
+
+    public ExYieldTask(int numYields, AtomicInteger counter, CountDownLatch latch) {
+        this.numYields = numYields;
+        this.counter = counter;
+        this.latch = latch;
+    }
+
+    public void execute() throws Pausable {
+        for (int i = 0; i < numYields; i++) {
+            Task.yield();
+            counter.incrementAndGet();
+        }
+        latch.countDown();
+    }
+}